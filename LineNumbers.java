@@ -11,6 +11,7 @@ import sootup.callgraph.ClassHierarchyAnalysisAlgorithm;
 import sootup.callgraph.RapidTypeAnalysisAlgorithm;
 
 
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.ArrayList;
 import java.util.List;
@@ -20,8 +21,10 @@ import java.util.stream.Collectors;
 import java.util.Set;
 import java.util.HashSet;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 
 
 import sootup.core.jimple.common.stmt.Stmt;
@@ -31,15 +34,45 @@ import sootup.core.jimple.common.stmt.JInvokeStmt;
 
 public class LineNumbers {
     private static Map<MethodSignature, SootMethod> methodMap = new HashMap<>();
+    private static final int BUFFER_SIZE = 1 << 16;
+    // --quiet skips mirroring the call trees to the console
+    private static boolean quiet = false;
+    // traversal budgets per root, unlimited unless given as --max-depth=N / --max-nodes=N
+    private static int maxDepth = Integer.MAX_VALUE;
+    private static int maxNodes = Integer.MAX_VALUE;
     public static void main(String[] args) {
         try {
-            //given path
-            String projectPath;
-            if (args.length > 0) {
-                projectPath = args[0];
-            } else {
-                //current path
-                projectPath = System.getProperty("user.dir") + "/CurrentAnalyzingCompiled";
+            //given path, defaults to current path
+            String projectPath = System.getProperty("user.dir") + "/CurrentAnalyzingCompiled";
+            //same forms and checks as BuildCGOptions: --name=value or --name value
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    projectPath = arg;
+                    continue;
+                }
+                String name = arg;
+                String value = null;
+                int eq = arg.indexOf('=');
+                if (eq >= 0) {
+                    name = arg.substring(0, eq);
+                    value = arg.substring(eq + 1);
+                }
+                switch (name) {
+                    case "--max-depth":
+                        if (value == null) value = next(args, ++i, name);
+                        maxDepth = positiveInt(name, value);
+                        break;
+                    case "--max-nodes":
+                        if (value == null) value = next(args, ++i, name);
+                        maxNodes = positiveInt(name, value);
+                        break;
+                    case "--quiet":
+                        quiet = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + name);
+                }
             }
             
             System.out.println("========================================");
@@ -106,9 +139,9 @@ public class LineNumbers {
             
             //print filtered call graph to file and console
             try {
-                FileWriter writerCHA = new FileWriter("output_CHA.txt");
-                FileWriter writerRTA = new FileWriter("output_RTA.txt");
-                FileWriter writer = new FileWriter("output1.txt");
+                Writer writerCHA = new BufferedWriter(new FileWriter("output_CHA.txt"), BUFFER_SIZE);
+                Writer writerRTA = new BufferedWriter(new FileWriter("output_RTA.txt"), BUFFER_SIZE);
+                Writer writer = new BufferedWriter(new FileWriter("output1.txt"), BUFFER_SIZE);
 
                 // Track all visited methods globally to avoid infinite recursion
                 System.out.println("Traversing all reachable methods...");
@@ -120,8 +153,10 @@ public class LineNumbers {
                         MethodSignature methodSig = method.getSignature();
 
                         writer.write("<" + className + ": " + method.getName() + ">\n");
-                        System.out.println("CALL GRAPH for <" + className + ": " + method.getName() + ">");
-                         traverseCallGraph(methodSig, cg, writer, 1, new ArrayList<>());
+                        if (!quiet) {
+                            System.out.println("CALL GRAPH for <" + className + ": " + method.getName() + ">");
+                        }
+                         traverseCallGraph(methodSig, cg, writer, 1, new HashSet<>());
                         // for (SootMethod target : cg.get(methodSig)) {
                         //     System.out.println("    from <" 
                         //         + target.getDeclClassType() + ": " 
@@ -163,22 +198,84 @@ public class LineNumbers {
         }
     }
     
+    private static String next(String[] args, int i, String name) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + name);
+        }
+        return args[i];
+    }
+
+    private static int positiveInt(String name, String value) {
+        int n;
+        try {
+            n = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1: " + value);
+        }
+        return n;
+    }
+
     private static void traverseCallGraph(
-            MethodSignature methodSig,
+            MethodSignature root,
             CallGraph cg,
-            FileWriter writer,
+            Writer writer,
             int depth,
-            List<MethodSignature> visited) throws IOException {
+            Set<MethodSignature> visited) throws IOException {
+
+        // Explicit stack instead of recursion so long call chains cannot overflow the thread stack
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        int nodeCount = 0;
 
         // Prevent infinite loops
-        if (visited.contains(methodSig)) {
-            return;
-        }
-        visited.add(methodSig);
+        visited.add(root);
+        stack.push(new Frame(targetsInOrder(root, cg), depth));
 
-        // Indentation for readability
-        String indent = "    ".repeat(depth);
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.next >= frame.targets.size()) {
+                stack.pop();
+                continue;
+            }
 
+            // Indentation for readability
+            String indent = "    ".repeat(frame.depth);
+
+            if (nodeCount >= maxNodes) {
+                String marker = indent + "[truncated: max nodes " + maxNodes + "]\n";
+                writer.write(marker);
+                if (!quiet) System.out.print(marker);
+                return;
+            }
+
+            MethodSignature callee = frame.targets.get(frame.next++);
+            String callOutput = indent + "to <" + callee.getDeclClassType() + ": " + callee.getType() + " " + callee.getName() + ">" + " (line " + definitionLine(callee) + ")\n";
+            writer.write(callOutput);
+            if (!quiet) System.out.print(callOutput);
+            nodeCount++;
+
+            if (visited.contains(callee)) {
+                continue;
+            }
+            List<MethodSignature> targets = targetsInOrder(callee, cg);
+            if (frame.depth + 1 > maxDepth) {
+                if (!targets.isEmpty()) {
+                    String marker = "    ".repeat(frame.depth + 1) + "[truncated: max depth " + maxDepth + "]\n";
+                    writer.write(marker);
+                    if (!quiet) System.out.print(marker);
+                }
+                continue;
+            }
+            visited.add(callee);
+            // Descend immediately to preserve depth-first source ordering
+            stack.push(new Frame(targets, frame.depth + 1));
+        }
+    }
+
+    // Call graph targets of a method, those found in its statements first (in source order)
+    private static List<MethodSignature> targetsInOrder(MethodSignature methodSig, CallGraph cg) {
         // Look up the SootMethod for this signature so we can inspect its statements
         SootMethod method = methodMap.get(methodSig);
 
@@ -188,9 +285,7 @@ public class LineNumbers {
             cgTargets.add(t);
         }
 
-        // We'll print targets in source-order by scanning the caller's statements and
-        // emitting any invocation we find that matches a cg target. Track which
-        // targets we've already emitted so we can emit the remainder afterwards.
+        List<MethodSignature> ordered = new ArrayList<>();
         Set<MethodSignature> emitted = new HashSet<>();
 
         if (method != null && method.hasBody()) {
@@ -199,48 +294,46 @@ public class LineNumbers {
                     java.util.Optional<AbstractInvokeExpr> invOpt = ((JInvokeStmt) stmt).getInvokeExpr();
                     if (invOpt != null && invOpt.isPresent()) {
                         MethodSignature calledSig = invOpt.get().getMethodSignature();
-                        if (calledSig != null && cgTargets.contains(calledSig) && !emitted.contains(calledSig)) {
-                            // Get the target method's definition line
-                            int targetLine = -1;
-                            SootMethod targetMethod = methodMap.get(calledSig);
-                            if (targetMethod != null && targetMethod.hasBody()) {
-                                try {
-                                    if (targetMethod.getBody().getPosition() != null) {
-                                        targetLine = targetMethod.getBody().getPosition().getFirstLine();
-                                    }
-                                } catch (Throwable ignore) {
-                                }
-                            }
-                            String callOutput = indent + "to <" + calledSig.getDeclClassType() + ": " + calledSig.getType() + " " + calledSig.getName() + ">" + " (line " + targetLine + ")\n";
-                            writer.write(callOutput);
-                            System.out.print(callOutput);
-                            emitted.add(calledSig);
-                            // Recurse immediately to preserve depth-first source ordering
-                            traverseCallGraph(calledSig, cg, writer, depth + 1, visited);
+                        if (calledSig != null && cgTargets.contains(calledSig) && emitted.add(calledSig)) {
+                            ordered.add(calledSig);
                         }
                     }
                 }
             }
         }
 
-        // Emit any remaining targets that weren't found in source order
+        // Any remaining targets that weren't found in source order
         for (MethodSignature callee : cgTargets) {
-            if (emitted.contains(callee)) continue;
-            // Get the target method's definition line
-            int line = -1;
-            SootMethod targetMethod = methodMap.get(callee);
-            if (targetMethod != null && targetMethod.hasBody()) {
-                try {
-                    if (targetMethod.getBody().getPosition() != null) {
-                        line = targetMethod.getBody().getPosition().getFirstLine();
-                    }
-                } catch (Throwable ignore) {
+            if (emitted.add(callee)) {
+                ordered.add(callee);
+            }
+        }
+        return ordered;
+    }
+
+    // Get the target method's definition line
+    private static int definitionLine(MethodSignature methodSig) {
+        int line = -1;
+        SootMethod targetMethod = methodMap.get(methodSig);
+        if (targetMethod != null && targetMethod.hasBody()) {
+            try {
+                if (targetMethod.getBody().getPosition() != null) {
+                    line = targetMethod.getBody().getPosition().getFirstLine();
                 }
+            } catch (Throwable ignore) {
             }
-            String callOutput = indent + "to <" + callee.getDeclClassType() + ": " + callee.getType() + " " + callee.getName() + ">" + " (line " + line + ")\n";
-            writer.write(callOutput);
-            System.out.print(callOutput);
-            traverseCallGraph(callee, cg, writer, depth + 1, visited);
+        }
+        return line;
+    }
+
+    private static class Frame {
+        final List<MethodSignature> targets;
+        final int depth;
+        int next;
+
+        Frame(List<MethodSignature> targets, int depth) {
+            this.targets = targets;
+            this.depth = depth;
         }
     }
 }
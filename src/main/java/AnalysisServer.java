@@ -0,0 +1,318 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import sootup.core.signatures.MethodSignature;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Keeps a project's view, call graphs and call site index loaded and answers queries
+ * about them, one JSON object per line, until {@code shutdown} or end of input.
+ *
+ * <pre>
+ * {"id": 1, "op": "callees", "method": "StringUtils.isBlank"}
+ * {"id": 1, "ok": true, "result": [{"method": "&lt;...&gt;", "callees": [{"method": "&lt;...&gt;", "calls": 1, "line": 42}]}]}
+ * </pre>
+ *
+ * Operations are {@code callees}, {@code callers}, {@code tree} (the method's block of
+ * output.txt, optionally with {@code maxDepth}/{@code maxNodes}), {@code callerTree} (the
+ * same for {@code --callers}), {@code stats} and {@code shutdown}. {@code method} takes
+ * anything {@code --method} does and is matched against the graph's methods, library
+ * methods included; every matching overload gets an entry. {@code algorithm}
+ * picks "cha" or "rta" and defaults to {@code --tree}. The optional {@code id} is echoed.
+ * Failures answer {@code {"ok": false, "error": "..."}}.
+ *
+ * Requests are read from stdin or, with {@code --serve=<port>}, from any number of
+ * connections to that port on the loopback address. Progress and log output go to stderr.
+ */
+public class AnalysisServer {
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final BuildCGOptions options;
+    // its traversals are reused across requests, so their subtree caches stay warm
+    private final CallGraphService service;
+    private final long loadMillis;
+    private final long startTime = System.nanoTime();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean stopped;
+    // closed by a shutdown request to end accept()
+    private volatile ServerSocket listening;
+
+    private AnalysisServer(CallGraphService service, long loadMillis) {
+        this.options = service.options();
+        this.service = service;
+        this.loadMillis = loadMillis;
+    }
+
+    /** Loads the project and serves requests until shutdown. */
+    public static void run(BuildCGOptions options) throws Exception {
+        // stdout carries responses when serving on stdin, so the service logs to stderr
+        long t0 = System.nanoTime();
+        CallGraphService service = CallGraphService.open(options, System.err).build();
+        AnalysisServer server = new AnalysisServer(service, (System.nanoTime() - t0) / 1_000_000);
+        System.err.println("\nLoaded project in " + server.loadMillis + " ms");
+
+        if (options.port == 0) {
+            System.err.println("Serving requests on stdin");
+            server.serve(System.in, System.out);
+        } else {
+            server.listen(options.port);
+        }
+    }
+
+    private void listen(int port) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "analysis-server-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Serving requests on " + serverSocket.getLocalSocketAddress());
+            listening = serverSocket;
+            while (!stopped) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (stopped) break;
+                    throw e;
+                }
+                connections.execute(() -> {
+                    try (Socket s = socket) {
+                        serve(s.getInputStream(), s.getOutputStream());
+                    } catch (IOException e) {
+                        System.err.println("Connection failed: " + e.getMessage());
+                    }
+                });
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    // answers each line of the input until it ends or a shutdown request arrives
+    private void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        String line;
+        while (!stopped && (line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            writer.write(GSON.toJson(answer(line)));
+            writer.write("\n");
+            writer.flush();
+        }
+    }
+
+    /** Response to one request line. */
+    public JsonObject answer(String line) {
+        requests.incrementAndGet();
+        JsonObject response = new JsonObject();
+        JsonElement id = null;
+        try {
+            JsonElement parsed = JsonParser.parseString(line);
+            if (!parsed.isJsonObject()) {
+                throw new IllegalArgumentException("Request must be a JSON object");
+            }
+            JsonObject request = parsed.getAsJsonObject();
+            id = request.get("id");
+            if (id != null) {
+                response.add("id", id);
+            }
+            response.addProperty("ok", true);
+            response.add("result", dispatch(request));
+        } catch (RuntimeException e) {
+            response = new JsonObject();
+            if (id != null) {
+                response.add("id", id);
+            }
+            response.addProperty("ok", false);
+            response.addProperty("error", e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+        return response;
+    }
+
+    private JsonElement dispatch(JsonObject request) {
+        String op = string(request, "op", null);
+        if (op == null) {
+            throw new IllegalArgumentException("Missing \"op\"");
+        }
+        switch (op) {
+            case "callees":
+                return callees(request);
+            case "callers":
+                return callers(request);
+            case "tree":
+                return tree(request);
+            case "callerTree":
+                return callerTree(request);
+            case "stats":
+                return stats();
+            case "shutdown":
+                stopped = true;
+                if (listening != null) {
+                    try {
+                        listening.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+                return new JsonObject();
+            default:
+                throw new IllegalArgumentException("Unknown op: " + op);
+        }
+    }
+
+    private JsonArray callees(JsonObject request) {
+        String algorithm = algorithm(request);
+        JsonArray result = new JsonArray();
+        for (MethodSignature sig : methods(request, algorithm)) {
+            result.add(entry(sig, "callees", edges(service.calleesOf(sig, algorithm))));
+        }
+        return result;
+    }
+
+    private JsonArray callers(JsonObject request) {
+        String algorithm = algorithm(request);
+        JsonArray result = new JsonArray();
+        for (MethodSignature sig : methods(request, algorithm)) {
+            result.add(entry(sig, "callers", edges(service.callersOf(sig, algorithm))));
+        }
+        return result;
+    }
+
+    private JsonArray tree(JsonObject request) {
+        String algorithm = algorithm(request);
+        int maxDepth = positiveInt(request, "maxDepth", options.maxDepth);
+        int maxNodes = positiveInt(request, "maxNodes", options.maxNodes);
+        JsonArray result = new JsonArray();
+        for (MethodSignature sig : methods(request, algorithm)) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("method", sig.toString());
+            entry.addProperty("tree", service.treeHeader(sig) + "\n" + service.tree(sig, algorithm, maxDepth, maxNodes));
+            result.add(entry);
+        }
+        return result;
+    }
+
+    private JsonArray callerTree(JsonObject request) {
+        String algorithm = algorithm(request);
+        int maxDepth = positiveInt(request, "maxDepth", options.maxDepth);
+        int maxNodes = positiveInt(request, "maxNodes", options.maxNodes);
+        JsonArray result = new JsonArray();
+        for (MethodSignature sig : methods(request, algorithm)) {
+            CallerTraversal.Result callers = service.callers(sig, algorithm, maxDepth, maxNodes);
+            JsonObject entry = new JsonObject();
+            entry.addProperty("method", sig.toString());
+            entry.addProperty("callers", callers.callers().size());
+            entry.addProperty("truncated", callers.truncated());
+            entry.addProperty("tree", service.callersHeader(sig) + "\n" + callers.render(1));
+            result.add(entry);
+        }
+        return result;
+    }
+
+    private JsonObject stats() {
+        GraphCache.Snapshot snapshot = service.snapshot();
+        JsonObject stats = new JsonObject();
+        stats.addProperty("project", options.projectPath);
+        stats.addProperty("classes", snapshot.classNames.size());
+        stats.addProperty("methods", service.projectMethodCount());
+        stats.addProperty("entryPoints", snapshot.entryPointCount);
+        if (snapshot.cha != null) stats.add("cha", graphStats(snapshot.cha));
+        if (snapshot.rta != null) stats.add("rta", graphStats(snapshot.rta));
+        stats.addProperty("classesLoaded", service.view().getCachedClassesCount());
+        stats.addProperty("requests", requests.get());
+        stats.addProperty("loadMs", loadMillis);
+        stats.addProperty("uptimeMs", (System.nanoTime() - startTime) / 1_000_000);
+        return stats;
+    }
+
+    private static JsonObject graphStats(CompactCallGraph graph) {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("methods", graph.size());
+        stats.addProperty("edges", graph.edgeCount());
+        stats.addProperty("calls", graph.callCount());
+        return stats;
+    }
+
+    // checked against the built graphs, so a bad name fails before any method is looked up
+    private String algorithm(JsonObject request) {
+        String algorithm = string(request, "algorithm", options.treeAlgorithm).toLowerCase();
+        service.graph(algorithm);
+        return algorithm;
+    }
+
+    // methods of the graph named by the request
+    private List<MethodSignature> methods(JsonObject request, String algorithm) {
+        String query = string(request, "method", null);
+        if (query == null) {
+            throw new IllegalArgumentException("Missing \"method\"");
+        }
+        return MethodQuery.resolve(service.graph(algorithm), query);
+    }
+
+    private static JsonArray edges(List<CallGraphService.Edge> edges) {
+        JsonArray array = new JsonArray();
+        for (CallGraphService.Edge edge : edges) {
+            JsonObject object = new JsonObject();
+            object.addProperty("method", edge.method.toString());
+            object.addProperty("calls", edge.calls);
+            object.addProperty("line", edge.line);
+            array.add(object);
+        }
+        return array;
+    }
+
+    private static JsonObject entry(MethodSignature sig, String name, JsonArray edges) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("method", sig.toString());
+        entry.add(name, edges);
+        return entry;
+    }
+
+    private static String string(JsonObject request, String name, String defaultValue) {
+        JsonElement value = request.get(name);
+        if (value == null || value.isJsonNull()) {
+            return defaultValue;
+        }
+        if (!value.isJsonPrimitive()) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a string");
+        }
+        return value.getAsString();
+    }
+
+    private static int positiveInt(JsonObject request, String name, int defaultValue) {
+        JsonElement value = request.get(name);
+        if (value == null || value.isJsonNull()) {
+            return defaultValue;
+        }
+        int n;
+        try {
+            n = value.getAsInt();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("\"" + name + "\" must be an integer");
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException("\"" + name + "\" must be at least 1");
+        }
+        return n;
+    }
+}
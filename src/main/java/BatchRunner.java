@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Analyzes many projects in one JVM, each in its own {@link CallGraphService} session on
+ * its own thread, at most {@code --jobs} of them at a time.
+ *
+ * {@code --batch} names a directory, whose subdirectories and jars are the projects, or a
+ * manifest with one project path per line (relative to the manifest, {@code #} comments).
+ * Every project gets a folder under {@code --output-dir} with the usual output files and
+ * a log.txt of its progress; summary.csv lists status, counts and timings of all of them
+ * in manifest order.
+ *
+ * A project still running after {@code --timeout} seconds is reported as "timeout", gives
+ * its slot to the next project and has its output files deleted, keeping log.txt. Its
+ * thread is interrupted and stops at the next phase of the analysis; until then it runs
+ * on beside the batch without writing any output. A new project only starts while at least
+ * {@code --min-free-heap} MB of heap are free, unless nothing else is running (a timed-out
+ * project no longer counts); one that
+ * still runs out of memory is reported as "out-of-memory" and the batch goes on.
+ */
+public class BatchRunner {
+    private static final String CSV_HEADER =
+            "project,path,status,classes,methods,entry_points,cha_calls,rta_calls,build_ms,write_ms,total_ms,error";
+
+    private final BuildCGOptions options;
+    private final Path outputDir;
+    private final BlockingQueue<Result> finished = new LinkedBlockingQueue<>();
+    // --jobs slots; a project gives its slot back when its result is reported, even if its thread runs on
+    private final Semaphore slots;
+    // projects analyzing right now, guarded by itself
+    private final int[] active = new int[1];
+
+    private BatchRunner(BuildCGOptions options) {
+        this.options = options;
+        this.outputDir = Paths.get(options.outputDir);
+        this.slots = new Semaphore(options.jobs);
+    }
+
+    /** Analyzes every project of {@code options.batch} and writes summary.csv. */
+    public static void run(BuildCGOptions options) throws Exception {
+        new BatchRunner(options).runAll();
+    }
+
+    /** Project paths named by a directory or manifest, in order. */
+    public static List<Path> projects(String batch) throws IOException {
+        Path path = Paths.get(batch);
+        List<Path> projects = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry) || entry.getFileName().toString().endsWith(".jar")) {
+                        projects.add(entry);
+                    }
+                }
+            }
+            projects.sort(null);
+        } else {
+            Path base = path.toAbsolutePath().getParent();
+            for (String line : Files.readAllLines(path)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    projects.add(base.resolve(line).normalize());
+                }
+            }
+        }
+        return projects;
+    }
+
+    private void runAll() throws Exception {
+        List<Path> projects = projects(options.batch);
+        Files.createDirectories(outputDir);
+
+        System.out.println("========================================");
+        System.out.println("Batch of " + projects.size() + " projects");
+        System.out.println("========================================");
+        System.out.println("Workers: " + options.jobs
+                + (options.timeoutSeconds > 0 ? ", timeout " + options.timeoutSeconds + " s" : "")
+                + ", min free heap " + options.minFreeHeapMb + " MB of " + Runtime.getRuntime().maxMemory() / (1 << 20) + " MB");
+        System.out.println();
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long t0 = System.nanoTime();
+        List<Job> jobs = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Path project : projects) {
+            jobs.add(new Job(project, folderName(project, names)));
+        }
+        // daemon threads, so a project running on past its timeout does not keep the JVM alive
+        Thread dispatcher = new Thread(() -> {
+            try {
+                for (Job job : jobs) {
+                    slots.acquire();
+                    Thread worker = new Thread(() -> analyze(job, timer), "batch-" + job.name);
+                    worker.setDaemon(true);
+                    worker.start();
+                }
+            } catch (InterruptedException e) {
+                // the batch is over
+            }
+        }, "batch-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        int ok = 0;
+        for (int i = 1; i <= jobs.size(); i++) {
+            Result result = finished.take();
+            if (result.status.equals("ok")) ok++;
+            System.out.println("[" + i + "/" + jobs.size() + "] " + result.job.name + ": " + result.status
+                    + (result.error != null ? " (" + result.error + ")" : "")
+                    + ", " + result.totalMillis + " ms");
+        }
+        dispatcher.interrupt();
+        timer.shutdownNow();
+
+        Path summary = outputDir.resolve("summary.csv");
+        try (Writer writer = Files.newBufferedWriter(summary)) {
+            writer.write(CSV_HEADER + "\n");
+            for (Job job : jobs) {
+                writer.write(job.result.csv() + "\n");
+            }
+        }
+
+        System.out.println("\n========================================");
+        System.out.println("Batch Statistics");
+        System.out.println("========================================");
+        System.out.println("Projects analyzed: " + ok + " of " + jobs.size());
+        System.out.println("Time: " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+        System.out.println("Successfully wrote summary to " + summary);
+    }
+
+    // runs on its own thread; the timer may report the job first, then this result is dropped
+    private void analyze(Job job, ScheduledExecutorService timer) {
+        Result result = new Result(job);
+        long t0 = System.nanoTime();
+        ScheduledFuture<?> alarm = null;
+        try {
+            awaitHeadroom();
+            job.running.set(true);
+            // time spent waiting for heap is not the project's
+            t0 = System.nanoTime();
+            try {
+                if (options.timeoutSeconds > 0) {
+                    Thread worker = Thread.currentThread();
+                    long started = System.nanoTime();
+                    alarm = timer.schedule(() -> {
+                        Result timedOut = new Result(job);
+                        timedOut.status = "timeout";
+                        timedOut.totalMillis = (System.nanoTime() - started) / 1_000_000;
+                        synchronized (job) {
+                            if (report(timedOut)) {
+                                worker.interrupt();
+                                leave(job);
+                                discardOutputs(job);
+                            }
+                        }
+                    }, options.timeoutSeconds, TimeUnit.SECONDS);
+                }
+                run(job, result);
+                result.status = "ok";
+            } finally {
+                leave(job);
+            }
+        } catch (OutOfMemoryError e) {
+            result.status = "out-of-memory";
+        } catch (Exception | StackOverflowError e) {
+            result.status = "error";
+            result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } finally {
+            if (alarm != null) {
+                alarm.cancel(false);
+            }
+        }
+        result.totalMillis = (System.nanoTime() - t0) / 1_000_000;
+        synchronized (job) {
+            if (!report(result)) {
+                // timed out meanwhile; remove what was written before the interrupt was seen
+                discardOutputs(job);
+            }
+        }
+    }
+
+    private void run(Job job, Result result) throws Exception {
+        Path dir = outputDir.resolve(job.name);
+        Files.createDirectories(dir);
+        if (!Files.exists(job.project)) {
+            throw new IOException("No such project: " + job.project);
+        }
+        BuildCGOptions projectOptions = options.copy();
+        // class files behind a symbolic link are not found otherwise
+        projectOptions.projectPath = job.project.toRealPath().toString();
+        projectOptions.outputDir = dir.toString();
+        projectOptions.batch = null;
+        projectOptions.quiet = true;
+        projectOptions.progress = false;
+
+        try (PrintStream log = new PrintStream(Files.newOutputStream(dir.resolve("log.txt")), true)) {
+            long t0 = System.nanoTime();
+            CallGraphService service = CallGraphService.open(projectOptions, log).build();
+            long t1 = System.nanoTime();
+            result.buildMillis = (t1 - t0) / 1_000_000;
+
+            GraphCache.Snapshot snapshot = service.snapshot();
+            result.classes = snapshot.classNames.size();
+            result.methods = service.projectMethodCount();
+            result.entryPoints = snapshot.entryPointCount;
+            result.chaCalls = snapshot.cha == null ? -1 : snapshot.cha.callCount();
+            result.rtaCalls = snapshot.rta == null ? -1 : snapshot.rta.callCount();
+
+            // a project that timed out writes nothing more
+            CallGraphService.checkInterrupted();
+            try (OutputSink writer = OutputSink.open(dir.resolve("output.txt").toString())) {
+                service.writeTrees(writer);
+            }
+            CallGraphService.checkInterrupted();
+            if (projectOptions.writeScc) {
+                service.writeScc(dir.resolve("output_SCC.txt"));
+            }
+            CallGraphService.checkInterrupted();
+            service.writeDumps(dir);
+            CallGraphService.checkInterrupted();
+            if (projectOptions.export) {
+                service.export(dir);
+            }
+            result.writeMillis = (System.nanoTime() - t1) / 1_000_000;
+        }
+    }
+
+    // output files of a timed-out project; its log.txt stays
+    private void discardOutputs(Job job) {
+        Path dir = outputDir.resolve(job.name);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().equals("log.txt")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            // nothing written yet, or the folder is gone
+        }
+    }
+
+    // waits until enough heap is free to start another project; the first one always starts
+    private void awaitHeadroom() throws InterruptedException {
+        long needed = (long) options.minFreeHeapMb << 20;
+        synchronized (active) {
+            boolean collected = false;
+            while (active[0] > 0 && freeHeap() < needed) {
+                if (!collected) {
+                    System.gc();
+                    collected = true;
+                    continue;
+                }
+                active.wait(200);
+            }
+            active[0]++;
+        }
+    }
+
+    private void leave(Job job) {
+        if (job.running.compareAndSet(true, false)) {
+            synchronized (active) {
+                active[0]--;
+                active.notifyAll();
+            }
+        }
+    }
+
+    private static long freeHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    // the first result of a job wins and frees its slot; returns false if it was already reported
+    private boolean report(Result result) {
+        if (!result.job.reported.compareAndSet(false, true)) {
+            return false;
+        }
+        result.job.result = result;
+        slots.release();
+        finished.add(result);
+        return true;
+    }
+
+    // project folder names, made unique with a numeric suffix
+    private static String folderName(Path project, Set<String> taken) {
+        String base = project.getFileName().toString();
+        if (base.endsWith(".jar")) {
+            base = base.substring(0, base.length() - ".jar".length());
+        }
+        String name = base;
+        for (int n = 2; !taken.add(name); n++) {
+            name = base + "-" + n;
+        }
+        return name;
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static class Job {
+        final Path project;
+        final String name;
+        final AtomicBoolean reported = new AtomicBoolean();
+        // counted by the heap guard; a timed-out job stops counting even if its thread runs on
+        final AtomicBoolean running = new AtomicBoolean();
+        volatile Result result;
+
+        Job(Path project, String name) {
+            this.project = project;
+            this.name = name;
+        }
+    }
+
+    // one row of summary.csv; counts of -1 are left empty
+    private static class Result {
+        final Job job;
+        String status;
+        String error;
+        int classes = -1;
+        int methods = -1;
+        int entryPoints = -1;
+        long chaCalls = -1;
+        long rtaCalls = -1;
+        long buildMillis = -1;
+        long writeMillis = -1;
+        long totalMillis;
+
+        Result(Job job) {
+            this.job = job;
+        }
+
+        String csv() {
+            return csvField(job.name) + "," + csvField(job.project.toString()) + "," + status
+                    + "," + count(classes) + "," + count(methods) + "," + count(entryPoints)
+                    + "," + count(chaCalls) + "," + count(rtaCalls)
+                    + "," + count(buildMillis) + "," + count(writeMillis) + "," + totalMillis
+                    + "," + (error != null ? csvField(error) : "");
+        }
+
+        private static String count(long n) {
+            return n < 0 ? "" : Long.toString(n);
+        }
+    }
+}
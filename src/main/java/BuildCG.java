@@ -1,242 +1,279 @@
-import sootup.core.inputlocation.AnalysisInputLocation;
-import sootup.java.bytecode.frontend.inputlocation.JavaClassPathAnalysisInputLocation;
-import sootup.java.core.JavaSootClass;
-import sootup.java.core.views.JavaView;
-import sootup.core.model.SootMethod;
 import sootup.core.signatures.MethodSignature;
-import sootup.callgraph.CallGraph;
-import sootup.callgraph.CallGraphAlgorithm;
-import sootup.callgraph.ClassHierarchyAnalysisAlgorithm;
-import sootup.callgraph.RapidTypeAnalysisAlgorithm;
 
 
-import java.util.Collections;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.stream.Collectors;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.HashSet;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
-import sootup.core.jimple.common.stmt.Stmt;
-import sootup.core.jimple.common.expr.AbstractInvokeExpr;
-import sootup.core.jimple.common.stmt.JInvokeStmt;
-
-
+//command line front end of CallGraphService
 public class BuildCG {
-    private static Map<MethodSignature, SootMethod> methodMap = new HashMap<>();
     public static void main(String[] args) {
         try {
-            //given path
-            String projectPath;
-            if (args.length > 0) {
-                projectPath = args[0];
-            } else {
-                //current path
-                projectPath = System.getProperty("user.dir") + "/CurrentAnalyzingCompiled";
+            //given path and traversal budgets, defaults to current path
+            BuildCGOptions options = BuildCGOptions.parse(args);
+            String projectPath = options.projectPath;
+
+            //long-running mode; stdout may carry the responses, so nothing is printed here
+            if (options.serve) {
+                AnalysisServer.run(options);
+                return;
+            }
+            //many projects, each with its own output folder
+            if (options.batch != null) {
+                BatchRunner.run(options);
+                return;
             }
-            
+
             System.out.println("========================================");
             System.out.println("Building Call Graph for Project");
             System.out.println("========================================");
             System.out.println("Project path: " + projectPath);
             System.out.println();
-            
-            //input location
-            AnalysisInputLocation inputLocation = 
-                new JavaClassPathAnalysisInputLocation(projectPath);
-
-            JavaView view = new JavaView(Collections.singletonList(inputLocation));
-            
-            List<JavaSootClass> allClasses = view.getClasses().collect(Collectors.toList());
-            System.out.println("Found " + allClasses.size() + " classes in the project\n");
-            
-            //print names of all classes
-            System.out.println("========================================");
-            System.out.println("Classes Found:");
-            System.out.println("========================================");
-            int classCount = 1;
-            for (JavaSootClass sootClass : allClasses) {
-                String className = sootClass.getType().toString();
-                System.out.println(classCount + ". " + className);
-                classCount++;
+
+            Path outputDir = Paths.get(options.outputDir);
+            Files.createDirectories(outputDir);
+            CallGraphService service = CallGraphService.open(options);
+
+            //one method's tree only, resolved on demand without listing the project
+            if (options.method != null) {
+                queryMethod(service, outputDir);
+                return;
             }
-            
-            //methods of all classes entry points
-            List<MethodSignature> entryPoints = new ArrayList<>();
-            int totalMethods = 0;
-            
-            for (JavaSootClass sootClass : allClasses) {
-                String className = sootClass.getType().toString();
-                                
-                System.out.println("\nClass: " + className);
-                int methodCount = 0;
-                //get all the methods in each class
-                for (SootMethod method : sootClass.getMethods()) {
-                    entryPoints.add(method.getSignature());
-                    methodMap.put(method.getSignature(), method);
-                    totalMethods++;
-                    methodCount++;
-                }
-                System.out.println("  Total methods: " + methodCount);
+            //many methods' trees from one graph built for all of them
+            if (options.targets != null) {
+                queryTargets(service, outputDir);
+                return;
             }
-            
-            System.out.println("\n========================================");
-            System.out.println("Building Call Graph...");
-            System.out.println("========================================");
-            System.out.println("Total entry points (methods): " + totalMethods);
-            System.out.println();
-            
-
-            //build hierarchical and call graph
-            CallGraphAlgorithm cha = new ClassHierarchyAnalysisAlgorithm(view);
-            CallGraph cg = cha.initialize(entryPoints);
-            
-            System.out.println("\n========================================");
-            System.out.println("Call Graph Results");
-            System.out.println("========================================");
-            System.out.println("Total call edges: " + cg.callCount());
-            System.out.println();
-            
-            //print filtered call graph to file and console
-            try {
-                FileWriter writerCHA = new FileWriter("output_CHA.txt");
-                FileWriter writerRTA = new FileWriter("output_RTA.txt");
-                FileWriter writer = new FileWriter("output.txt");
-
-                // Track all visited methods globally to avoid infinite recursion
-                System.out.println("Traversing all reachable methods...");
-
-                for (JavaSootClass sootClass : allClasses) {
-                    String className = sootClass.getType().toString();
-
-                    for (SootMethod method : sootClass.getMethods()) {
-                        MethodSignature methodSig = method.getSignature();
-
-                        int defLine = -1;
-                        if (method.hasBody() && method.getBody().getPosition() != null) {
-                            defLine = method.getBody().getPosition().getFirstLine() - 1;
-                        }
-                        System.out.println("CALL GRAPH for <" + className + ": " + method.getName() + "()> (line " + defLine + ")");
-                        writer.write("CALL GRAPH for <" + className + ": " + method.getName() + "()> (line " + defLine + ")");
-                        // System.out.println("CALL GRAPH for <" + className + ": " + method.getName() + ">");
-                         traverseCallGraph(methodSig, cg, writer, 1, new ArrayList<>());
-                        // for (SootMethod target : cg.get(methodSig)) {
-                        //     System.out.println("    from <" 
-                        //         + target.getDeclClassType() + ": " 
-                        //         + target.getType() + " " 
-                        //         + target.getName() + ">");
-                        // }
-                        writer.write("\n");
-                    }
-                }
 
-                // Also build RTA call graph 
-                CallGraphAlgorithm rta = 
-                        new RapidTypeAnalysisAlgorithm(view);
-
-                CallGraph cgrta = 
-                        rta.initialize(entryPoints);
-
-                writerCHA.write(cg.toString());
-                writerRTA.write(cgrta.toString());
-                writerCHA.close();
-                writerRTA.close();
-                writer.close();
-                System.out.println("\nSuccessfully wrote filtered call graph to output.txt");
-            } catch (IOException e) {
-                System.out.println("An error occurred: " + e.getMessage());
+            //graphs and call sites from the cache when the project is unchanged, built otherwise
+            service.build();
+
+            //callers need the whole program's graph, so this runs after the full build
+            if (options.callers != null) {
+                queryCallers(service, outputDir);
+                return;
             }
-            
-            // Summary
-            System.out.println("\n========================================");
-            System.out.println("Summary Statistics");
-            System.out.println("========================================");
-            System.out.println("Classes analyzed: " + allClasses.size());
-            System.out.println("Methods analyzed: " + totalMethods);
-            System.out.println("Total call edges: " + cg.callCount());
- 
+
+            writeOutputs(service, outputDir);
+
+            //output.txt follows every change of the project until the process is stopped
+            if (options.watch) {
+                ProjectWatcher.run(service, () -> writeOutputs(service, outputDir));
+            }
+
         } catch (Exception e) {
             System.err.println("Error building call graph:");
             e.printStackTrace();
         }
     }
-    
-    private static void traverseCallGraph(
-            MethodSignature methodSig,
-            CallGraph cg,
-            FileWriter writer,
-            int depth,
-            List<MethodSignature> visited) throws IOException {
-
-        // Prevent infinite loops
-        if (visited.contains(methodSig)) {
-            return;
+
+    //prints coverage and summary and writes output.txt and the dumps of the built graphs
+    private static void writeOutputs(CallGraphService service, Path outputDir) {
+        BuildCGOptions options = service.options();
+        GraphCache.Snapshot snapshot = service.snapshot();
+        //graph that drives output.txt
+        CompactCallGraph graph = service.graph();
+
+        int totalMethods = service.projectMethodCount();
+        if (!options.entryPoints.equals("all")) {
+            int reached = 0;
+            for (List<MethodSignature> methods : snapshot.classMethods) {
+                for (MethodSignature sig : methods) {
+                    if ((snapshot.cha != null && snapshot.cha.id(sig) >= 0) || (snapshot.rta != null && snapshot.rta.id(sig) >= 0)) {
+                        reached++;
+                    }
+                }
+            }
+            System.out.println("Project methods in call graph: " + reached + " of " + totalMethods
+                    + " (" + (100 * reached / Math.max(1, totalMethods)) + "%)");
         }
-        visited.add(methodSig);
+        System.out.println();
 
-        // Indentation for readability
-        String indent = "    ".repeat(depth);
+        //print filtered call graph to file and console
+        try {
+            OutputSink writer = OutputSink.open(outputDir.resolve("output.txt").toString(), options.quiet);
 
-        // Look up the SootMethod for this signature so we can inspect its statements
-        SootMethod method = methodMap.get(methodSig);
+            // Interned int-id graph; subtrees are expanded once and reused across all roots
+            System.out.println("Traversing all reachable methods...");
+            service.writeTrees(writer);
 
-        // Gather all call targets from the call graph (may be unordered)
-        List<MethodSignature> cgTargets = new ArrayList<>();
-        for (MethodSignature t : cg.callTargetsFrom(methodSig)) {
-            cgTargets.add(t);
-        }
+            // Cycles collapsed into single nodes
+            if (options.writeScc) {
+                SccCondensation scc = service.writeScc(outputDir.resolve("output_SCC.txt"));
+                System.out.println("\nStrongly connected components: " + scc.componentCount()
+                        + " (" + scc.cyclicCount() + " cycles, largest " + scc.largestComponentSize() + " methods)");
+                System.out.println("Successfully wrote condensed call graph to output_SCC.txt");
+            }
 
-        // We'll print targets in source-order by scanning the caller's statements and
-        // emitting any invocation we find that matches a cg target. Track which
-        // targets we've already emitted so we can emit the remainder afterwards.
-        Set<MethodSignature> emitted = new HashSet<>();
-
-        if (method != null && method.hasBody()) {
-            for (Stmt stmt : method.getBody().getStmts()) {
-                if (stmt instanceof JInvokeStmt) {
-                    java.util.Optional<AbstractInvokeExpr> invOpt = ((JInvokeStmt) stmt).getInvokeExpr();
-                    if (invOpt != null && invOpt.isPresent()) {
-                        MethodSignature calledSig = invOpt.get().getMethodSignature();
-                        
-                        if (calledSig != null && cgTargets.contains(calledSig) && !emitted.contains(calledSig)) {
-                            int stmtLine = -1;
-                            if (stmt.getPositionInfo() != null && stmt.getPositionInfo().getStmtPosition() != null) {
-                                stmtLine = stmt.getPositionInfo().getStmtPosition().getFirstLine();
-                            }
-                            String callOutput = indent + "to <" + calledSig.getDeclClassType() + ": " + calledSig.getType() + " " + calledSig.getName() + ">" + " (line " + stmtLine + ")\n";
-                            writer.write(callOutput);
-                            System.out.print(callOutput);
-                            emitted.add(calledSig);
-                            // Recurse immediately to preserve depth-first source ordering
-                            traverseCallGraph(calledSig, cg, writer, depth + 1, visited);
-                        }
-                    }
+            writer.close();
+
+            service.writeDumps(outputDir);
+            System.out.println("\nSuccessfully wrote filtered call graph to output.txt");
+
+            // Binary copies for other tools, memory-mapped by MappedCallGraph
+            if (options.export) {
+                for (Path file : service.export(outputDir)) {
+                    System.out.println("Successfully wrote call graph to " + file.getFileName());
                 }
             }
+        } catch (IOException e) {
+            System.out.println("An error occurred: " + e.getMessage());
         }
 
-        // Emit any remaining targets that weren't found in source order
-        for (MethodSignature callee : cgTargets) {
-            if (emitted.contains(callee)) continue;
-            int line = -1;
-            if (method != null && method.hasBody()) {
-                try {
-                    if (method.getBody().getPosition() != null) {
-                        line = method.getBody().getPosition().getFirstLine();
-                    }
-                } catch (Throwable ignore) {
+        // Summary
+        System.out.println("\n========================================");
+        System.out.println("Summary Statistics");
+        System.out.println("========================================");
+        System.out.println("Classes analyzed: " + snapshot.classNames.size());
+        System.out.println("Methods analyzed: " + totalMethods);
+        System.out.println("Total call edges: " + graph.callCount());
+    }
+
+    //builds and writes the call tree of the --method query; only classes it reaches are loaded
+    private static void queryMethod(CallGraphService service, Path outputDir) throws Exception {
+        BuildCGOptions options = service.options();
+        long t0 = System.nanoTime();
+        List<MethodSignature> roots = service.resolve(options.method);
+        System.out.println("Query: " + options.method);
+        for (MethodSignature root : roots) {
+            System.out.println("  " + root);
+        }
+        System.out.println();
+
+        service.buildFrom(roots);
+        try {
+            OutputSink writer = OutputSink.open(outputDir.resolve("output.txt").toString(), options.quiet);
+            service.writeTrees(writer);
+            writer.close();
+            System.out.println("\nSuccessfully wrote call tree to output.txt");
+        } catch (IOException e) {
+            System.out.println("An error occurred: " + e.getMessage());
+        }
+
+        System.out.println("\n========================================");
+        System.out.println("Query Statistics");
+        System.out.println("========================================");
+        System.out.println("Methods in call tree: " + service.graph().size());
+        System.out.println("Call edges (" + options.treeAlgorithm.toUpperCase() + "): " + service.graph().callCount());
+        System.out.println("Classes loaded by the view: " + service.view().getCachedClassesCount());
+        System.out.println("Time: " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+    }
+
+    //writes one JSON record per method matching a line of --targets to output_targets.jsonl;
+    //all targets share one graph and one traversal, so common subtrees are expanded once
+    private static void queryTargets(CallGraphService service, Path outputDir) throws Exception {
+        BuildCGOptions options = service.options();
+        long t0 = System.nanoTime();
+        List<String> queries = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(options.targets))) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                queries.add(line);
+            }
+        }
+
+        //a query that matches nothing gets an error record instead of failing the batch
+        Map<String, List<MethodSignature>> matches = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+        Set<MethodSignature> roots = new LinkedHashSet<>();
+        for (String query : queries) {
+            try {
+                List<MethodSignature> sigs = service.resolve(query);
+                matches.put(query, sigs);
+                roots.addAll(sigs);
+            } catch (IllegalArgumentException e) {
+                errors.put(query, e.getMessage());
+            }
+        }
+        System.out.println("Targets: " + queries.size() + " (" + roots.size() + " methods, "
+                + errors.size() + " unresolved)");
+
+        long tGraph = System.nanoTime();
+        service.buildFrom(roots);
+        long graphMillis = (System.nanoTime() - tGraph) / 1_000_000;
+
+        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+        int records = 0;
+        try (Writer writer = Files.newBufferedWriter(outputDir.resolve("output_targets.jsonl"))) {
+            for (String query : queries) {
+                if (errors.containsKey(query)) {
+                    JsonObject record = new JsonObject();
+                    record.addProperty("query", query);
+                    record.addProperty("error", errors.get(query));
+                    writer.write(gson.toJson(record) + "\n");
+                    continue;
                 }
+                for (MethodSignature root : matches.get(query)) {
+                    int bodyLine = service.callSites().bodyLine(root);
+                    JsonObject record = new JsonObject();
+                    record.addProperty("query", query);
+                    record.addProperty("method", root.toString());
+                    record.addProperty("line", bodyLine == -1 ? -1 : bodyLine - 1);
+                    record.addProperty("tree", service.tree(root));
+                    writer.write(gson.toJson(record) + "\n");
+                    records++;
+                }
+            }
+        }
+        System.out.println("\nSuccessfully wrote " + records + " call trees to output_targets.jsonl");
+
+        System.out.println("\n========================================");
+        System.out.println("Batch Statistics");
+        System.out.println("========================================");
+        System.out.println("Methods in call graph: " + service.graph().size());
+        System.out.println("Call edges (" + options.treeAlgorithm.toUpperCase() + "): " + service.graph().callCount());
+        System.out.println("Classes loaded by the view: " + service.view().getCachedClassesCount());
+        System.out.println("Graph construction: " + graphMillis + " ms");
+        System.out.println("Time: " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+    }
+
+    //writes the reverse tree of every method matching --callers to output.txt
+    private static void queryCallers(CallGraphService service, Path outputDir) {
+        BuildCGOptions options = service.options();
+        long t0 = System.nanoTime();
+        List<MethodSignature> roots = service.resolve(options.callers);
+        System.out.println("\nCallers of: " + options.callers);
+        for (MethodSignature root : roots) {
+            System.out.println("  " + root);
+        }
+        System.out.println();
+
+        int callers = 0;
+        try {
+            OutputSink writer = OutputSink.open(outputDir.resolve("output.txt").toString(), options.quiet);
+            for (MethodSignature root : roots) {
+                writer.write(service.callersHeader(root));
+                writer.mirrorOnly("\n");
+                CallerTraversal.Result result = service.callers(root, options.treeAlgorithm, options.maxDepth, options.maxNodes);
+                writer.write(result.render(1));
+                writer.fileOnly("\n");
+                callers += result.callers().size();
             }
-            String callOutput = indent + "to <" + callee.getDeclClassType() + ": " + callee.getType() + " " + callee.getName() + ">" + " (line " + line + ")\n";
-            writer.write(callOutput);
-            System.out.print(callOutput);
-            traverseCallGraph(callee, cg, writer, depth + 1, visited);
+            writer.close();
+            System.out.println("\nSuccessfully wrote caller tree to output.txt");
+        } catch (IOException e) {
+            System.out.println("An error occurred: " + e.getMessage());
         }
+
+        System.out.println("\n========================================");
+        System.out.println("Query Statistics");
+        System.out.println("========================================");
+        System.out.println("Transitive callers (" + options.treeAlgorithm.toUpperCase() + "): " + callers);
+        System.out.println("Time: " + (System.nanoTime() - t0) / 1_000_000 + " ms");
     }
 }
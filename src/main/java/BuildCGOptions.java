@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Command line options for {@link BuildCG}.
+ *
+ * Options are given as {@code --name=value} or {@code --name value}; the first
+ * argument that is not an option is the project path.
+ */
+public class BuildCGOptions implements Cloneable {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    public String projectPath = System.getProperty("user.dir") + "/CurrentAnalyzingCompiled";
+    // source tree compiled into projectPath before the analysis, see SourceCompiler
+    public String sources;
+    // directory that output.txt and the other output files are written to
+    public String outputDir = ".";
+    // deepest tree level that is still printed (the root's callees are level 1)
+    public int maxDepth = UNLIMITED;
+    // number of "to" lines printed per root before the tree is cut off
+    public int maxNodes = UNLIMITED;
+    // call graphs to build, and the one that drives output.txt ("cha" or "rta")
+    public boolean cha = true;
+    public boolean rta = true;
+    public String treeAlgorithm;
+    // entry point strategy, see EntryPoints
+    public String entryPoints = "all";
+    // demand-driven mode: only this method's call tree is built and written (see MethodQuery)
+    public String method;
+    // batch mode: file with one --method query per line; every match's tree becomes a record of output_targets.jsonl
+    public String targets;
+    // reverse mode: the transitive callers of this method are written instead (see CallerTraversal)
+    public String callers;
+    // library classes shared by every view of the JVM, "jrt" and/or class paths; see LibraryLayer
+    public String library;
+    // package rules for construction; callees outside them become stub leaves, see ScopeRules
+    public List<String> includes = new ArrayList<>();
+    public List<String> excludes = new ArrayList<>();
+    // only the project's own classes are expanded
+    public boolean appOnly;
+    // directory of the on-disk graph cache, see GraphCache; null disables it
+    public String cacheDir;
+    // update a stale cache entry from the changed class files instead of rebuilding (see IncrementalUpdate)
+    public boolean incremental;
+    // build CHA and RTA one after the other instead of at the same time
+    public boolean sequentialBuild;
+    // worker threads rendering call trees; 1 renders them on the main thread
+    public int threads = 1;
+    // skip mirroring the call trees to the console
+    public boolean quiet;
+    // show a progress line on standard error while trees are written
+    public boolean progress;
+    // also write the cycle-condensed call graph to output_SCC.txt
+    public boolean writeScc;
+    // also write each graph to output_CHA.cgb / output_RTA.cgb, see CallGraphExport
+    public boolean export;
+    // keep the project loaded and answer JSON-lines requests (see AnalysisServer), on stdin/stdout or on port
+    public boolean serve;
+    public int port;
+    // analyze every project of this directory or manifest, see BatchRunner
+    public String batch;
+    // projects analyzed at the same time in batch mode
+    public int jobs = Runtime.getRuntime().availableProcessors();
+    // seconds a batch project may take before it is reported as timed out; 0 waits forever
+    public int timeoutSeconds;
+    // heap that must be free before another batch project starts
+    public int minFreeHeapMb = 512;
+    // after the first run, keep output.txt current as the sources or class files change, see ProjectWatcher
+    public boolean watch;
+    // quiet time after the last change before a watch run starts
+    public int debounceMillis = 300;
+
+    public static BuildCGOptions parse(String[] args) {
+        BuildCGOptions options = new BuildCGOptions();
+        boolean pathSeen = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                if (pathSeen) {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+                options.projectPath = arg;
+                pathSeen = true;
+                continue;
+            }
+
+            String name = arg;
+            String value = null;
+            int eq = arg.indexOf('=');
+            if (eq >= 0) {
+                name = arg.substring(0, eq);
+                value = arg.substring(eq + 1);
+            }
+
+            switch (name) {
+                case "--sources":
+                    if (value == null) value = next(args, ++i, name);
+                    options.sources = value;
+                    break;
+                case "--output-dir":
+                    if (value == null) value = next(args, ++i, name);
+                    options.outputDir = value;
+                    break;
+                case "--max-depth":
+                    if (value == null) value = next(args, ++i, name);
+                    options.maxDepth = positiveInt(name, value);
+                    break;
+                case "--max-nodes":
+                    if (value == null) value = next(args, ++i, name);
+                    options.maxNodes = positiveInt(name, value);
+                    break;
+                case "--algorithms":
+                    if (value == null) value = next(args, ++i, name);
+                    options.cha = false;
+                    options.rta = false;
+                    for (String algorithm : value.split(",")) {
+                        switch (algorithm.trim().toLowerCase()) {
+                            case "cha":
+                                options.cha = true;
+                                break;
+                            case "rta":
+                                options.rta = true;
+                                break;
+                            default:
+                                throw new IllegalArgumentException("Unknown algorithm for " + name + ": " + algorithm);
+                        }
+                    }
+                    break;
+                case "--tree":
+                    if (value == null) value = next(args, ++i, name);
+                    options.treeAlgorithm = value.trim().toLowerCase();
+                    if (!options.treeAlgorithm.equals("cha") && !options.treeAlgorithm.equals("rta")) {
+                        throw new IllegalArgumentException("Unknown algorithm for " + name + ": " + value);
+                    }
+                    break;
+                case "--entry-points":
+                    if (value == null) value = next(args, ++i, name);
+                    if (!EntryPoints.isValidStrategy(value)) {
+                        throw new IllegalArgumentException("Unknown strategy for " + name + ": " + value
+                                + " (expected all, main, public, tests or file:<path>)");
+                    }
+                    options.entryPoints = value;
+                    break;
+                case "--method":
+                    if (value == null) value = next(args, ++i, name);
+                    options.method = value;
+                    break;
+                case "--targets":
+                    if (value == null) value = next(args, ++i, name);
+                    options.targets = value;
+                    break;
+                case "--callers":
+                    if (value == null) value = next(args, ++i, name);
+                    options.callers = value;
+                    break;
+                case "--library":
+                    if (value == null) value = next(args, ++i, name);
+                    options.library = value;
+                    break;
+                case "--include":
+                    if (value == null) value = next(args, ++i, name);
+                    options.includes.addAll(Arrays.asList(value.split(",")));
+                    break;
+                case "--exclude":
+                    if (value == null) value = next(args, ++i, name);
+                    options.excludes.addAll(Arrays.asList(value.split(",")));
+                    break;
+                case "--app-only":
+                    options.appOnly = true;
+                    break;
+                case "--cache-dir":
+                    if (value == null) value = next(args, ++i, name);
+                    options.cacheDir = value;
+                    break;
+                case "--incremental":
+                    options.incremental = true;
+                    break;
+                case "--sequential-build":
+                    options.sequentialBuild = true;
+                    break;
+                case "--threads":
+                    if (value == null) value = next(args, ++i, name);
+                    options.threads = positiveInt(name, value);
+                    break;
+                case "--quiet":
+                    options.quiet = true;
+                    break;
+                case "--progress":
+                    options.progress = true;
+                    break;
+                case "--scc":
+                    options.writeScc = true;
+                    break;
+                case "--export":
+                    options.export = true;
+                    break;
+                case "--serve":
+                    //no value: stdin/stdout, --serve=<port>: loopback socket
+                    options.serve = true;
+                    if (value != null) {
+                        options.port = positiveInt(name, value);
+                        if (options.port > 65535) {
+                            throw new IllegalArgumentException("Invalid port for " + name + ": " + value);
+                        }
+                    }
+                    break;
+                case "--batch":
+                    if (value == null) value = next(args, ++i, name);
+                    options.batch = value;
+                    break;
+                case "--jobs":
+                    if (value == null) value = next(args, ++i, name);
+                    options.jobs = positiveInt(name, value);
+                    break;
+                case "--timeout":
+                    if (value == null) value = next(args, ++i, name);
+                    options.timeoutSeconds = positiveInt(name, value);
+                    break;
+                case "--min-free-heap":
+                    if (value == null) value = next(args, ++i, name);
+                    options.minFreeHeapMb = positiveInt(name, value);
+                    break;
+                case "--watch":
+                    options.watch = true;
+                    break;
+                case "--debounce":
+                    if (value == null) value = next(args, ++i, name);
+                    options.debounceMillis = positiveInt(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+
+        int modes = (options.method != null ? 1 : 0) + (options.targets != null ? 1 : 0)
+                + (options.callers != null ? 1 : 0) + (options.serve ? 1 : 0) + (options.batch != null ? 1 : 0);
+        if (modes > 1) {
+            throw new IllegalArgumentException("Only one of --method, --targets, --callers, --serve and --batch can be given");
+        }
+        if (options.sources != null && options.batch != null) {
+            throw new IllegalArgumentException("--sources cannot be combined with --batch");
+        }
+        if (options.watch && modes > 0) {
+            throw new IllegalArgumentException("--watch only applies to the full output, not to --method, --targets, --callers, --serve or --batch");
+        }
+        if (options.incremental && options.cacheDir == null) {
+            throw new IllegalArgumentException("--incremental needs --cache-dir");
+        }
+        if (options.treeAlgorithm == null) {
+            options.treeAlgorithm = options.cha ? "cha" : "rta";
+        }
+        if (options.treeAlgorithm.equals("cha") ? !options.cha : !options.rta) {
+            throw new IllegalArgumentException("--tree=" + options.treeAlgorithm + " needs that algorithm in --algorithms");
+        }
+        return options;
+    }
+
+    /** Independent copy, e.g. to change the project of one batch entry. */
+    public BuildCGOptions copy() {
+        try {
+            BuildCGOptions copy = (BuildCGOptions) super.clone();
+            copy.includes = new ArrayList<>(includes);
+            copy.excludes = new ArrayList<>(excludes);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String next(String[] args, int i, String name) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + name);
+        }
+        return args[i];
+    }
+
+    private static int positiveInt(String name, String value) {
+        int n;
+        try {
+            n = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1: " + value);
+        }
+        return n;
+    }
+}
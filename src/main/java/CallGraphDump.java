@@ -0,0 +1,102 @@
+import sootup.core.signatures.MethodSignature;
+import sootup.callgraph.CallGraph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Writes a call graph in the text format of {@code GraphBasedCallGraph.toString()},
+ * one method block at a time, so the whole dump never sits in memory as one string.
+ *
+ * <pre>
+ * GraphBasedCallGraph(7):
+ * &lt;A: void foo()&gt;:
+ * 	to &lt;B: void bar()&gt;
+ * 	from &lt;A: void main(java.lang.String[])&gt;
+ * </pre>
+ */
+public class CallGraphDump {
+    private static final Comparator<MethodSignature> METHOD_ORDER =
+            Comparator.comparing((MethodSignature m) -> m.getDeclClassType().toString())
+                    .thenComparing(MethodSignature::getName)
+                    .thenComparing(m -> m.getParameterTypes().toString())
+                    // bridge methods differ only in return type; without this their order would follow the graph's hash order
+                    .thenComparing(m -> m.getType().toString());
+
+    private CallGraphDump() {
+    }
+
+    public static void write(CallGraph cg, Writer writer) throws IOException {
+        write(CompactCallGraph.of(cg), writer);
+    }
+
+    public static void write(CompactCallGraph graph, Writer writer) throws IOException {
+        writer.write(graph.graphType() + "(" + graph.callCount() + ")");
+        if (graph.size() == 0) {
+            writer.write(" is empty");
+            return;
+        }
+        writer.write(":\n");
+
+        // callers of every method, one entry per call site like callsTo()
+        int n = graph.size();
+        int[] callerStart = new int[n + 1];
+        for (int i = 0; i < graph.edgeCount(); i++) {
+            callerStart[graph.targetAt(i) + 1] += graph.callsAt(i);
+        }
+        for (int m = 0; m < n; m++) {
+            callerStart[m + 1] += callerStart[m];
+        }
+        int[] callers = new int[callerStart[n]];
+        int[] fill = Arrays.copyOf(callerStart, n);
+        for (int m = 0; m < n; m++) {
+            for (int i = graph.targetsStart(m); i < graph.targetsEnd(m); i++) {
+                for (int c = 0; c < graph.callsAt(i); c++) {
+                    callers[fill[graph.targetAt(i)]++] = m;
+                }
+            }
+        }
+
+        Comparator<Integer> idOrder = Comparator.comparing(graph::signature, METHOD_ORDER);
+        List<Integer> methods = new ArrayList<>(n);
+        for (int m = 0; m < n; m++) {
+            methods.add(m);
+        }
+        methods.sort(idOrder);
+
+        StringBuilder block = new StringBuilder();
+        List<Integer> calls = new ArrayList<>();
+        for (int method : methods) {
+            block.setLength(0);
+            block.append(graph.signature(method)).append(":\n");
+
+            calls.clear();
+            for (int i = graph.targetsStart(method); i < graph.targetsEnd(method); i++) {
+                for (int c = 0; c < graph.callsAt(i); c++) {
+                    calls.add(graph.targetAt(i));
+                }
+            }
+            calls.sort(idOrder);
+            for (int target : calls) {
+                block.append("\tto ").append(graph.signature(target)).append("\n");
+            }
+
+            calls.clear();
+            for (int i = callerStart[method]; i < callerStart[method + 1]; i++) {
+                calls.add(callers[i]);
+            }
+            calls.sort(idOrder);
+            for (int source : calls) {
+                block.append("\tfrom ").append(graph.signature(source)).append("\n");
+            }
+
+            block.append("\n");
+            writer.write(block.toString());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import sootup.core.signatures.MethodSignature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+
+/**
+ * Writes a call graph to a versioned binary file that {@link MappedCallGraph} (or any
+ * other consumer, e.g. numpy.memmap) reads in place without parsing.
+ *
+ * All numbers are little-endian. The file starts with a fixed header:
+ * <pre>
+ *  0  int   magic 0x46524743 ("CGRF")
+ *  4  int   version
+ *  8  int   method count n
+ * 12  int   edge count e (distinct caller/callee pairs)
+ * 16  long  call site count
+ * 24  long  section offsets, in the order below (9 longs)
+ * </pre>
+ * followed by the sections, each starting on an 8 byte boundary:
+ * <pre>
+ * stringOffsets  int[n+1]  byte range of each signature in stringData
+ * stringData     byte[]    UTF-8 signatures as in output_CHA.txt, e.g. "&lt;A: void foo(int)&gt;"
+ * calleeOffsets  int[n+1]  edges of method m are calleeOffsets[m] .. calleeOffsets[m+1]-1
+ * calleeIds      int[e]    target of each edge
+ * edgeCalls      int[e]    call sites behind each edge
+ * edgeLines      int[e]    source line of the edge as printed in output.txt, -1 if unknown
+ * callerOffsets  int[n+1]  callers of method m are callerOffsets[m] .. callerOffsets[m+1]-1
+ * callerIds      int[e]    caller of each incoming edge
+ * callerEdges    int[e]    index of that edge in calleeIds
+ * </pre>
+ * Method ids follow the unsigned byte order of the UTF-8 signatures, so a signature is
+ * found by binary search. Edges of a method keep the call graph's order, callers are
+ * sorted by id.
+ */
+public class CallGraphExport {
+    static final int MAGIC = 0x46524743; // "CGRF"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24 + 9 * 8;
+
+    private CallGraphExport() {
+    }
+
+    public static void write(CompactCallGraph graph, CallSiteIndex callSites, Path file) throws IOException {
+        int n = graph.size();
+        int e = graph.edgeCount();
+
+        // ids in signature byte order
+        byte[][] names = new byte[n][];
+        Integer[] order = new Integer[n];
+        for (int m = 0; m < n; m++) {
+            names[m] = graph.signature(m).toString().getBytes(StandardCharsets.UTF_8);
+            order[m] = m;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer m) -> names[m], CallGraphExport::compareBytes));
+        int[] newId = new int[n];
+        for (int i = 0; i < n; i++) {
+            newId[order[i]] = i;
+        }
+
+        int[] stringOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            stringOffsets[i + 1] = Math.addExact(stringOffsets[i], names[order[i]].length);
+        }
+
+        int[] calleeOffsets = new int[n + 1];
+        int[] calleeIds = new int[e];
+        int[] edgeCalls = new int[e];
+        int[] edgeLines = new int[e];
+        int[] callerOffsets = new int[n + 1];
+        int edge = 0;
+        for (int i = 0; i < n; i++) {
+            int m = order[i];
+            calleeOffsets[i] = edge;
+            for (int k = graph.targetsStart(m); k < graph.targetsEnd(m); k++) {
+                calleeIds[edge] = newId[graph.targetAt(k)];
+                edgeCalls[edge] = graph.callsAt(k);
+                edgeLines[edge] = callSites.edgeLine(graph.signature(m), graph.signature(graph.targetAt(k)));
+                callerOffsets[calleeIds[edge] + 1]++;
+                edge++;
+            }
+        }
+        calleeOffsets[n] = edge;
+
+        // reverse CSR; callers come out sorted because sources are visited in id order
+        for (int i = 0; i < n; i++) {
+            callerOffsets[i + 1] += callerOffsets[i];
+        }
+        int[] callerIds = new int[e];
+        int[] callerEdges = new int[e];
+        int[] fill = Arrays.copyOf(callerOffsets, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = calleeOffsets[i]; k < calleeOffsets[i + 1]; k++) {
+                int slot = fill[calleeIds[k]]++;
+                callerIds[slot] = i;
+                callerEdges[slot] = k;
+            }
+        }
+
+        long[] sectionOffsets = new long[9];
+        long[] sectionSizes = {
+                4L * (n + 1), stringOffsets[n], 4L * (n + 1), 4L * e, 4L * e, 4L * e, 4L * (n + 1), 4L * e, 4L * e};
+        long position = HEADER_SIZE;
+        for (int s = 0; s < sectionSizes.length; s++) {
+            position = align(position);
+            sectionOffsets[s] = position;
+            position += sectionSizes[s];
+        }
+        // the file ends on a boundary too, so a trailing empty section still lies within it
+        long fileSize = align(position);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(e).putLong(graph.callCount());
+        for (long offset : sectionOffsets) {
+            header.putLong(offset);
+        }
+        header.flip();
+
+        // unique sibling with the default permissions, so other users' processes can map the result
+        Path tmp = file.toAbsolutePath().resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            writeFully(channel, header, 0);
+            writeInts(channel, stringOffsets, sectionOffsets[0]);
+            ByteBuffer data = ByteBuffer.allocate(stringOffsets[n]);
+            for (int i = 0; i < n; i++) {
+                data.put(names[order[i]]);
+            }
+            data.flip();
+            writeFully(channel, data, sectionOffsets[1]);
+            writeInts(channel, calleeOffsets, sectionOffsets[2]);
+            writeInts(channel, calleeIds, sectionOffsets[3]);
+            writeInts(channel, edgeCalls, sectionOffsets[4]);
+            writeInts(channel, edgeLines, sectionOffsets[5]);
+            writeInts(channel, callerOffsets, sectionOffsets[6]);
+            writeInts(channel, callerIds, sectionOffsets[7]);
+            writeInts(channel, callerEdges, sectionOffsets[8]);
+            if (channel.size() < fileSize) {
+                writeFully(channel, ByteBuffer.allocate((int) (fileSize - channel.size())), channel.size());
+            }
+        }
+        try {
+            check(tmp, graph, names, order, calleeOffsets, calleeIds, callerOffsets, callerIds);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // maps the written file back and compares it with what was meant to be written
+    private static void check(Path file, CompactCallGraph graph, byte[][] names, Integer[] order,
+                              int[] calleeOffsets, int[] calleeIds, int[] callerOffsets, int[] callerIds) throws IOException {
+        MappedCallGraph mapped = MappedCallGraph.open(file);
+        boolean same = mapped.size() == graph.size() && mapped.edgeCount() == graph.edgeCount()
+                && mapped.callCount() == graph.callCount();
+        for (int i = 0; same && i < mapped.size(); i++) {
+            same = Arrays.equals(mapped.signature(i).getBytes(StandardCharsets.UTF_8), names[order[i]])
+                    && Arrays.equals(mapped.callees(i), Arrays.copyOfRange(calleeIds, calleeOffsets[i], calleeOffsets[i + 1]))
+                    && Arrays.equals(mapped.callers(i), Arrays.copyOfRange(callerIds, callerOffsets[i], callerOffsets[i + 1]));
+        }
+        if (!same) {
+            throw new IOException("Call graph file does not read back as written: " + file);
+        }
+    }
+
+    static int compareBytes(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int c = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static void writeInts(FileChannel channel, int[] values, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(values);
+        writeFully(channel, buffer, position);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,587 @@
+import sootup.core.inputlocation.AnalysisInputLocation;
+import sootup.java.bytecode.frontend.inputlocation.JavaClassPathAnalysisInputLocation;
+import sootup.java.core.JavaSootClass;
+import sootup.java.core.views.JavaView;
+import sootup.core.model.SootClass;
+import sootup.core.model.SootMethod;
+import sootup.core.signatures.MethodSignature;
+import sootup.callgraph.CallGraph;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+
+/**
+ * Call graph analysis of one project as a library: load the project, build its graphs,
+ * then query trees, callers and edges or write the output files.
+ *
+ * <pre>
+ * CallGraphService service = CallGraphService.open(options).build();
+ * String tree = service.tree(service.resolve("StringUtils.isBlank").get(0));
+ * </pre>
+ *
+ * {@link #build()} covers the whole project and uses the graph cache when
+ * {@code options.cacheDir} is set; {@link #buildFrom} builds only what a few methods
+ * reach. {@link BuildCG} is the command line front end, {@link AnalysisServer} keeps a
+ * service loaded between requests.
+ *
+ * A service is one analysis session: the view, graphs and traversals belong to it alone
+ * and progress goes to its own log, so services of different projects can be built on
+ * separate threads of one JVM. Queries on a built service may come from any thread.
+ */
+public class CallGraphService {
+    private final BuildCGOptions options;
+    private final PrintStream log;
+    // opened again by update(), as a view keeps the classes it loaded
+    private AnalysisInputLocation inputLocation;
+    private JavaView view;
+    // result of the --sources compile at open, null without --sources
+    private SourceCompiler compiled;
+    private GraphCache.Snapshot snapshot;
+    // methods with a tree in output.txt: project methods in the graph, or the roots given to buildFrom
+    private List<MethodSignature> roots;
+    // true after buildFrom: the project's classes were not listed, only what the roots reach
+    private boolean partial;
+    // traversals with the option budgets, kept so their subtree caches are shared by all tree() calls
+    private CallTreeTraversal chaTraversal;
+    private CallTreeTraversal rtaTraversal;
+
+    private CallGraphService(BuildCGOptions options, PrintStream log) throws IOException {
+        this.options = options;
+        this.log = log;
+        this.inputLocation = new JavaClassPathAnalysisInputLocation(options.projectPath);
+        this.view = LibraryLayer.openView(options, inputLocation);
+    }
+
+    /** Opens the project in {@code options.projectPath}; nothing is built yet. Progress goes to {@code System.out}. */
+    public static CallGraphService open(BuildCGOptions options) throws IOException {
+        return open(options, System.out);
+    }
+
+    /**
+     * Opens the project in {@code options.projectPath}, printing progress to {@code log}.
+     * With {@code options.sources} the sources are compiled into that directory first.
+     */
+    public static CallGraphService open(BuildCGOptions options, PrintStream log) throws IOException {
+        SourceCompiler compiled = null;
+        if (options.sources != null) {
+            compiled = SourceCompiler.run(Paths.get(options.sources), Paths.get(options.projectPath), options.library, log);
+            compiled.printStats(log);
+            log.println();
+        }
+        CallGraphService service = new CallGraphService(options, log);
+        service.compiled = compiled;
+        return service;
+    }
+
+    /** A single graph edge: the method at the other end, its call sites and the line printed for it. */
+    public static class Edge {
+        public final MethodSignature method;
+        public final int calls;
+        public final int line;
+
+        public Edge(MethodSignature method, int calls, int line) {
+            this.method = method;
+            this.calls = calls;
+            this.line = line;
+        }
+    }
+
+    /** Builds the requested graphs of the whole project, or loads them from the cache. */
+    public CallGraphService build() throws Exception {
+        GraphCache.Snapshot loaded = load();
+        replace(loaded, false);
+        projectRoots();
+        return this;
+    }
+
+    /**
+     * Brings the graphs of {@link #build()} up to date after the class files
+     * {@code changedFiles} of the project (relative, '/'-separated) were added, changed or
+     * deleted. Only what they can affect is re-resolved if {@link IncrementalUpdate}
+     * supports the options; otherwise, or with {@code changedFiles} null for unknown
+     * changes, the project is built again. The cache of {@code --cache-dir} is updated too.
+     */
+    public CallGraphService update(Collection<String> changedFiles) throws Exception {
+        //the view still holds the classes as they were loaded
+        inputLocation = new JavaClassPathAnalysisInputLocation(options.projectPath);
+        view = LibraryLayer.openView(options, inputLocation);
+        if (changedFiles == null || snapshot == null || partial || !IncrementalUpdate.supports(options)) {
+            return build();
+        }
+        IncrementalUpdate update = IncrementalUpdate.run(snapshot, changedFiles, options, log);
+        printClasses(update.snapshot);
+        printEntryPoints(update.snapshot);
+        printResults(update.snapshot);
+        update.printStats(log);
+        if (options.cacheDir != null) {
+            GraphCache cache = GraphCache.open(options, log);
+            cache.save(update.snapshot);
+            log.println("Saved call graphs to cache " + cache.file());
+        }
+        replace(update.snapshot, false);
+        projectRoots();
+        return this;
+    }
+
+    /**
+     * Builds only the graph of the {@code --tree} algorithm with {@code entries} as the
+     * only entry points, so just the classes they reach are loaded. The class listing of
+     * the snapshot stays empty.
+     */
+    public CallGraphService buildFrom(Collection<MethodSignature> entries) throws Exception {
+        ScopeRules scope = ScopeRules.of(options, () -> inputLocation.getClassSources(view)
+                .map(source -> source.getClassType().getFullyQualifiedName())
+                .collect(Collectors.toList()));
+        boolean cha = options.treeAlgorithm.equals("cha");
+        CallGraphConstruction graphs = CallGraphConstruction.build(view, new ArrayList<>(entries), scope, cha, !cha, false);
+        CallGraph cg = cha ? graphs.cha : graphs.rta;
+
+        //only methods with a body in the project are indexed, as in the full run
+        List<SootMethod> reached = new ArrayList<>();
+        for (MethodSignature sig : cg.getMethodSignatures()) {
+            if (scope != null && !scope.contains(sig.getDeclClassType())) continue;
+            view.getMethod(sig).filter(SootMethod::hasBody).ifPresent(reached::add);
+        }
+
+        GraphCache.Snapshot built = new GraphCache.Snapshot();
+        built.entryPointCount = entries.size();
+        if (cha) {
+            built.cha = CompactCallGraph.of(cg);
+        } else {
+            built.rta = CompactCallGraph.of(cg);
+        }
+        built.callSites = CallSiteIndex.build(reached);
+        replace(built, true);
+        roots = new ArrayList<>(entries);
+        return this;
+    }
+
+    public BuildCGOptions options() {
+        return options;
+    }
+
+    public PrintStream log() {
+        return log;
+    }
+
+    public JavaView view() {
+        return view;
+    }
+
+    /** The {@code --sources} compile done by {@link #open}, or null. */
+    public SourceCompiler compiled() {
+        return compiled;
+    }
+
+    /** Class listing, graphs and call site index of the last build. */
+    public GraphCache.Snapshot snapshot() {
+        return built();
+    }
+
+    /** Graph of the {@code --tree} algorithm. */
+    public CompactCallGraph graph() {
+        return graph(options.treeAlgorithm);
+    }
+
+    /** Graph of "cha" or "rta". */
+    public CompactCallGraph graph(String algorithm) {
+        GraphCache.Snapshot built = built();
+        CompactCallGraph graph;
+        switch (algorithm.toLowerCase()) {
+            case "cha":
+                graph = built.cha;
+                break;
+            case "rta":
+                graph = built.rta;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+        }
+        if (graph == null) {
+            throw new IllegalArgumentException("No " + algorithm.toUpperCase() + " graph was built, see --algorithms");
+        }
+        return graph;
+    }
+
+    public CallSiteIndex callSites() {
+        return built().callSites;
+    }
+
+    /** Methods written to output.txt by {@link #writeTrees}, in order. */
+    public List<MethodSignature> roots() {
+        built();
+        return roots;
+    }
+
+    /** Number of methods declared in the project's classes (0 after {@link #buildFrom}). */
+    public int projectMethodCount() {
+        int total = 0;
+        for (List<MethodSignature> methods : built().classMethods) {
+            total += methods.size();
+        }
+        return total;
+    }
+
+    /**
+     * Methods matching a {@code --method} style query. Before a build the project's
+     * classes are searched, afterwards the graph's methods, library methods included.
+     */
+    public List<MethodSignature> resolve(String query) {
+        if (snapshot == null) {
+            // the view caches what it loads, so only one lookup may run at a time
+            synchronized (view) {
+                return MethodQuery.resolve(view, query);
+            }
+        }
+        return MethodQuery.resolve(graph(), query);
+    }
+
+    /** Line written before the method's tree in output.txt. */
+    public String treeHeader(MethodSignature sig) {
+        return "CALL GRAPH for <" + sig.getDeclClassType() + ": " + sig.getName() + "()> (line " + definitionLine(sig) + ")";
+    }
+
+    /** Line written before the method's caller tree. */
+    public String callersHeader(MethodSignature sig) {
+        return "CALLERS of <" + sig.getDeclClassType() + ": " + sig.getName() + "()> (line " + definitionLine(sig) + ")";
+    }
+
+    /** The method's "to" tree with the option budgets, as in output.txt without the header. */
+    public String tree(MethodSignature root) {
+        CompactCallGraph graph = graph();
+        // the shared traversals keep per-root state
+        synchronized (this) {
+            boolean cha = graph == snapshot.cha;
+            if (cha && chaTraversal == null) {
+                chaTraversal = new CallTreeTraversal(graph, snapshot.callSites, options.maxDepth, options.maxNodes);
+            } else if (!cha && rtaTraversal == null) {
+                rtaTraversal = new CallTreeTraversal(graph, snapshot.callSites, options.maxDepth, options.maxNodes);
+            }
+            return (cha ? chaTraversal : rtaTraversal).render(root, 1);
+        }
+    }
+
+    /** The method's "to" tree in the graph of {@code algorithm} with the given budgets. */
+    public String tree(MethodSignature root, String algorithm, int maxDepth, int maxNodes) {
+        CompactCallGraph graph = graph(algorithm);
+        if (graph == graph() && maxDepth == options.maxDepth && maxNodes == options.maxNodes) {
+            return tree(root);
+        }
+        return new CallTreeTraversal(graph, callSites(), maxDepth, maxNodes).render(root, 1);
+    }
+
+    /** Transitive callers of the method in the graph of {@code algorithm}, see {@link CallerTraversal}. */
+    public CallerTraversal.Result callers(MethodSignature root, String algorithm, int maxDepth, int maxNodes) {
+        return new CallerTraversal(graph(algorithm), callSites(), maxDepth, maxNodes).walk(root);
+    }
+
+    /** Direct callees of the method, in the graph's order. */
+    public List<Edge> calleesOf(MethodSignature sig, String algorithm) {
+        CompactCallGraph graph = graph(algorithm);
+        List<Edge> edges = new ArrayList<>();
+        int m = graph.id(sig);
+        if (m < 0) {
+            return edges;
+        }
+        for (int i = graph.targetsStart(m); i < graph.targetsEnd(m); i++) {
+            MethodSignature callee = graph.signature(graph.targetAt(i));
+            edges.add(new Edge(callee, graph.callsAt(i), callSites().edgeLine(sig, callee)));
+        }
+        return edges;
+    }
+
+    /** Direct callers of the method. */
+    public List<Edge> callersOf(MethodSignature sig, String algorithm) {
+        CompactCallGraph graph = graph(algorithm);
+        List<Edge> edges = new ArrayList<>();
+        int m = graph.id(sig);
+        if (m < 0) {
+            return edges;
+        }
+        for (int i = graph.callersStart(m); i < graph.callersEnd(m); i++) {
+            MethodSignature caller = graph.signature(graph.callerAt(i));
+            edges.add(new Edge(caller, graph.callsAt(graph.callerEdgeAt(i)), callSites().edgeLine(caller, sig)));
+        }
+        return edges;
+    }
+
+    /** Writes the tree of every root, in the format of output.txt. */
+    public void writeTrees(OutputSink writer) throws IOException {
+        CompactCallGraph graph = graph();
+        List<String> headers = new ArrayList<>();
+        for (MethodSignature root : roots()) {
+            headers.add(treeHeader(root));
+        }
+
+        ProgressLine progress = new ProgressLine(options.progress, "Traversing", roots.size());
+        if (options.threads > 1) {
+            // Trees rendered concurrently, written in the same order as below
+            new ParallelTreeWriter(graph, callSites(), options.maxDepth, options.maxNodes, options.threads)
+                    .write(roots, headers, writer, progress);
+        } else {
+            CallTreeTraversal traversal = new CallTreeTraversal(graph, callSites(), options.maxDepth, options.maxNodes);
+            for (int i = 0; i < roots.size(); i++) {
+                writer.write(headers.get(i));
+                writer.mirrorOnly("\n");
+                traversal.traverse(roots.get(i), writer, 1);
+                writer.fileOnly("\n");
+                progress.step();
+            }
+        }
+        progress.finish();
+        writer.flush();
+    }
+
+    /** Writes the cycle-condensed graph of the {@code --tree} algorithm to {@code file}. */
+    public SccCondensation writeScc(Path file) throws IOException {
+        SccCondensation scc = SccCondensation.of(graph());
+        OutputSink writer = OutputSink.open(file.toString());
+        scc.write(writer);
+        writer.close();
+        return scc;
+    }
+
+    /** Writes output_CHA.txt and output_RTA.txt for the graphs that were built. */
+    public void writeDumps(Path dir) throws IOException {
+        // Streamed method by method instead of building cg.toString() in memory
+        if (built().cha != null) {
+            OutputSink writerCHA = OutputSink.open(dir.resolve("output_CHA.txt").toString());
+            CallGraphDump.write(snapshot.cha, writerCHA);
+            writerCHA.close();
+        }
+        if (snapshot.rta != null) {
+            OutputSink writerRTA = OutputSink.open(dir.resolve("output_RTA.txt").toString());
+            CallGraphDump.write(snapshot.rta, writerRTA);
+            writerRTA.close();
+        }
+    }
+
+    /** Writes output_CHA.cgb and output_RTA.cgb, see {@link CallGraphExport}; returns the files written. */
+    public List<Path> export(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (built().cha != null) {
+            files.add(dir.resolve("output_CHA.cgb"));
+            CallGraphExport.write(snapshot.cha, snapshot.callSites, files.get(files.size() - 1));
+        }
+        if (snapshot.rta != null) {
+            files.add(dir.resolve("output_RTA.cgb"));
+            CallGraphExport.write(snapshot.rta, snapshot.callSites, files.get(files.size() - 1));
+        }
+        return files;
+    }
+
+    // traversals of the previous graphs must not answer for the new ones
+    private synchronized void replace(GraphCache.Snapshot built, boolean partial) {
+        this.snapshot = built;
+        this.partial = partial;
+        chaTraversal = null;
+        rtaTraversal = null;
+    }
+
+    // every project method in the graph, in class order
+    private void projectRoots() {
+        CompactCallGraph graph = graph();
+        roots = new ArrayList<>();
+        for (List<MethodSignature> methods : snapshot.classMethods) {
+            for (MethodSignature sig : methods) {
+                if (graph.id(sig) >= 0) {
+                    roots.add(sig);
+                }
+            }
+        }
+    }
+
+    private GraphCache.Snapshot built() {
+        if (snapshot == null) {
+            throw new IllegalStateException("No call graph was built yet");
+        }
+        return snapshot;
+    }
+
+    // the line before the body, as javac puts the first line of a body after the signature
+    private int definitionLine(MethodSignature sig) {
+        int bodyLine = callSites().bodyLine(sig);
+        if (bodyLine == -1 && partial) {
+            // roots outside the scope rules are not indexed
+            SootMethod method = view.getMethod(sig).orElse(null);
+            if (method != null && method.hasBody() && method.getBody().getPosition() != null) {
+                bodyLine = method.getBody().getPosition().getFirstLine();
+            }
+        }
+        return bodyLine == -1 ? -1 : bodyLine - 1;
+    }
+
+    //graphs and call sites from the cache when the project is unchanged, built otherwise
+    private GraphCache.Snapshot load() throws Exception {
+        GraphCache cache = options.cacheDir == null ? null : GraphCache.open(options, log);
+        GraphCache.Snapshot loaded = null;
+        if (cache != null) {
+            long t0 = System.nanoTime();
+            GraphCache.Snapshot cached = cache.read();
+            if (cached != null && cache.isCurrent()) {
+                loaded = cached;
+                printClasses(loaded);
+                printEntryPoints(loaded);
+                log.println("Loaded call graphs from cache " + cache.file()
+                        + " in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+                printResults(loaded);
+            } else if (cached != null && cache.libraryChanged()) {
+                //every project class may resolve differently against a changed library
+                log.println("Cache miss: library changed");
+            } else if (cached != null && options.incremental && IncrementalUpdate.supports(options)) {
+                //re-resolve only what the changed class files can affect
+                log.println("Cache entry is stale: " + cache.changedInputs().size()
+                        + " input file(s) changed, updating incrementally");
+                IncrementalUpdate update = IncrementalUpdate.run(cached, cache.changedInputs(), options, log);
+                loaded = update.snapshot;
+                printClasses(loaded);
+                printEntryPoints(loaded);
+                printResults(loaded);
+                update.printStats(log);
+                cache.save(loaded);
+                log.println("Saved call graphs to cache " + cache.file());
+            } else if (cached != null) {
+                log.println("Cache miss: " + cache.changedInputs().size() + " input file(s) changed");
+            }
+        }
+        if (loaded == null) {
+            loaded = analyze();
+            if (cache != null) {
+                cache.save(loaded);
+                log.println("Saved call graphs to cache " + cache.file());
+            }
+        }
+        return loaded;
+    }
+
+    //loads the project, builds the requested graphs and indexes the call sites of every method they reach
+    private GraphCache.Snapshot analyze() throws Exception {
+        GraphCache.Snapshot analyzed = new GraphCache.Snapshot();
+
+        //library classes of a shared layer are in the view too, but not part of the project
+        List<JavaSootClass> allClasses = view.getClasses().filter(SootClass::isApplicationClass).collect(Collectors.toList());
+        //all the methods of this project, in class order
+        Map<MethodSignature, SootMethod> methods = new LinkedHashMap<>();
+        for (JavaSootClass sootClass : allClasses) {
+            for (SootMethod method : sootClass.getMethods()) {
+                methods.put(method.getSignature(), method);
+            }
+            analyzed.addClass(sootClass);
+        }
+        printClasses(analyzed);
+        checkInterrupted();
+
+        //entry points picked by the chosen strategy, all methods by default
+        List<MethodSignature> entryPoints = EntryPoints.select(options.entryPoints, allClasses, log);
+        analyzed.entryPointCount = entryPoints.size();
+        printEntryPoints(analyzed);
+
+        //package boundary for construction; null expands everything
+        ScopeRules scope = ScopeRules.of(options, () -> allClasses.stream()
+                .map(c -> c.getType().getFullyQualifiedName())
+                .collect(Collectors.toList()));
+
+        //build only the requested call graphs, CHA and RTA side by side when both are wanted
+        CallGraphConstruction graphs = CallGraphConstruction.build(
+                view, entryPoints, scope, options.cha, options.rta, !options.sequentialBuild);
+        CallGraph cgCHA = graphs.cha;
+        CallGraph cgRTA = graphs.rta;
+        analyzed.cha = cgCHA == null ? null : CompactCallGraph.of(cgCHA);
+        analyzed.rta = cgRTA == null ? null : CompactCallGraph.of(cgRTA);
+        checkInterrupted();
+
+        printResults(analyzed);
+        graphs.printTimings(log);
+        if (scope != null) {
+            CallGraph cg = options.treeAlgorithm.equals("cha") ? cgCHA : cgRTA;
+            log.println("Out-of-scope stub methods: " + countStubs(cg, scope));
+            log.println("Classes loaded by the view: " + view.getCachedClassesCount());
+        }
+
+        //project methods the graphs reach; only these are indexed and get a tree in output.txt
+        List<SootMethod> reached = new ArrayList<>();
+        for (SootMethod method : methods.values()) {
+            MethodSignature sig = method.getSignature();
+            if ((cgCHA != null && cgCHA.containsMethod(sig)) || (cgRTA != null && cgRTA.containsMethod(sig))) {
+                reached.add(method);
+            }
+        }
+
+        //call sites of every reached method, so traversal never rescans bodies
+        checkInterrupted();
+        analyzed.callSites = CallSiteIndex.build(reached);
+        checkInterrupted();
+        return analyzed;
+    }
+
+    //SootUp does not stop on an interrupt, so a batch project that timed out is stopped between phases
+    static void checkInterrupted() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Interrupted");
+        }
+    }
+
+    //names of all classes, then the method count of each
+    private void printClasses(GraphCache.Snapshot snapshot) {
+        log.println("Found " + snapshot.classNames.size() + " classes in the project\n");
+
+        log.println("========================================");
+        log.println("Classes Found:");
+        log.println("========================================");
+        for (int c = 0; c < snapshot.classNames.size(); c++) {
+            log.println((c + 1) + ". " + snapshot.classNames.get(c));
+        }
+
+        for (int c = 0; c < snapshot.classNames.size(); c++) {
+            log.println("\nClass: " + snapshot.classNames.get(c));
+            log.println("  Total methods: " + snapshot.classMethods.get(c).size());
+        }
+    }
+
+    private void printEntryPoints(GraphCache.Snapshot snapshot) {
+        log.println("\n========================================");
+        log.println("Building Call Graph...");
+        log.println("========================================");
+        if (options.entryPoints.equals("all")) {
+            log.println("Total entry points (methods): " + snapshot.entryPointCount);
+        } else {
+            int totalMethods = 0;
+            for (List<MethodSignature> methods : snapshot.classMethods) {
+                totalMethods += methods.size();
+            }
+            log.println("Total entry points (methods): " + snapshot.entryPointCount + " of " + totalMethods
+                    + " (" + options.entryPoints + ")");
+        }
+        log.println();
+    }
+
+    private void printResults(GraphCache.Snapshot snapshot) {
+        CompactCallGraph graph = options.treeAlgorithm.equals("cha") ? snapshot.cha : snapshot.rta;
+        log.println("\n========================================");
+        log.println("Call Graph Results");
+        log.println("========================================");
+        if (snapshot.cha != null) log.println("CHA call edges: " + snapshot.cha.callCount());
+        if (snapshot.rta != null) log.println("RTA call edges: " + snapshot.rta.callCount());
+        log.println("Total call edges: " + graph.callCount() + " (" + options.treeAlgorithm.toUpperCase() + ", used for output.txt)");
+    }
+
+    //methods of the graph whose class lies outside the scope, i.e. leaves that were never expanded
+    private static int countStubs(CallGraph cg, ScopeRules scope) {
+        int stubs = 0;
+        for (MethodSignature sig : cg.getMethodSignatures()) {
+            if (!scope.contains(sig.getDeclClassType())) {
+                stubs++;
+            }
+        }
+        return stubs;
+    }
+}
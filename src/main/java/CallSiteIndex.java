@@ -0,0 +1,182 @@
+import sootup.core.model.SootMethod;
+import sootup.core.signatures.MethodSignature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import sootup.core.jimple.common.stmt.Stmt;
+import sootup.core.jimple.common.expr.AbstractInvokeExpr;
+import sootup.core.jimple.common.expr.JInterfaceInvokeExpr;
+import sootup.core.jimple.common.expr.JNewExpr;
+import sootup.core.jimple.common.expr.JVirtualInvokeExpr;
+import sootup.core.jimple.common.ref.JStaticFieldRef;
+import sootup.core.jimple.common.stmt.InvokableStmt;
+import sootup.core.jimple.common.stmt.JAssignStmt;
+import sootup.core.jimple.common.stmt.JInvokeStmt;
+
+
+/**
+ * Call sites of every method in statement order, collected in one pass over the
+ * Jimple bodies when the project is loaded.
+ *
+ * Covers plain invoke statements ({@code foo();}) as well as invokes on the right
+ * hand side of an assignment ({@code x = foo();}).
+ *
+ * For {@link IncrementalUpdate} it also records which classes each method's call graph
+ * edges depend on: the declared classes of its virtual and interface calls, whose
+ * subtypes CHA dispatches to, and every other class it calls, instantiates or reads a
+ * static field of, whose superclass chain decides the resolved method and static initializers.
+ */
+public class CallSiteIndex {
+    private final Map<MethodSignature, List<CallSite>> sites = new HashMap<>();
+    private final Map<MethodSignature, Integer> bodyLines = new HashMap<>();
+    private final Map<MethodSignature, Set<String>> dispatchTypes = new HashMap<>();
+    private final Map<MethodSignature, Set<String>> referencedTypes = new HashMap<>();
+
+    public static CallSiteIndex build(Iterable<? extends SootMethod> methods) {
+        CallSiteIndex index = new CallSiteIndex();
+        for (SootMethod method : methods) {
+            index.add(method);
+        }
+        return index;
+    }
+
+    /** Indexes the method's body, if it has one. */
+    public void add(SootMethod method) {
+        if (!method.hasBody()) {
+            return;
+        }
+        MethodSignature methodSig = method.getSignature();
+
+        try {
+            if (method.getBody().getPosition() != null) {
+                bodyLines.put(methodSig, method.getBody().getPosition().getFirstLine());
+            }
+        } catch (Throwable ignore) {
+        }
+
+        List<CallSite> methodSites = new ArrayList<>();
+        Set<String> dispatch = new HashSet<>();
+        Set<String> referenced = new HashSet<>();
+        int stmtIndex = 0;
+        for (Stmt stmt : method.getBody().getStmts()) {
+            if (stmt instanceof JInvokeStmt || stmt instanceof JAssignStmt) {
+                Optional<AbstractInvokeExpr> invOpt = ((InvokableStmt) stmt).getInvokeExpr();
+                if (invOpt != null && invOpt.isPresent() && invOpt.get().getMethodSignature() != null) {
+                    int stmtLine = -1;
+                    if (stmt.getPositionInfo() != null && stmt.getPositionInfo().getStmtPosition() != null) {
+                        stmtLine = stmt.getPositionInfo().getStmtPosition().getFirstLine();
+                    }
+                    AbstractInvokeExpr invoke = invOpt.get();
+                    methodSites.add(new CallSite(invoke.getMethodSignature(), stmtLine, stmtIndex));
+                    String declClass = invoke.getMethodSignature().getDeclClassType().getFullyQualifiedName();
+                    if (invoke instanceof JVirtualInvokeExpr || invoke instanceof JInterfaceInvokeExpr) {
+                        dispatch.add(declClass);
+                    } else {
+                        referenced.add(declClass);
+                    }
+                }
+            }
+            stmt.getUsesAndDefs().forEach(value -> {
+                if (value instanceof JNewExpr) {
+                    referenced.add(((JNewExpr) value).getType().getFullyQualifiedName());
+                } else if (value instanceof JStaticFieldRef) {
+                    referenced.add(((JStaticFieldRef) value).getFieldSignature().getDeclClassType().getFullyQualifiedName());
+                }
+            });
+            stmtIndex++;
+        }
+        if (!methodSites.isEmpty()) {
+            sites.put(methodSig, methodSites);
+        }
+        if (!dispatch.isEmpty()) {
+            dispatchTypes.put(methodSig, dispatch);
+        }
+        if (!referenced.isEmpty()) {
+            referencedTypes.put(methodSig, referenced);
+        }
+    }
+
+    /** Copies another index's entry for the method, used for methods whose class did not change. */
+    public void copy(CallSiteIndex from, MethodSignature methodSig) {
+        add(methodSig, from.bodyLine(methodSig), from.sitesOf(methodSig),
+                from.dispatchTypesOf(methodSig), from.referencedTypesOf(methodSig));
+    }
+
+    /** Adds an entry read back from a {@link GraphCache}; {@code bodyLine} is -1 if unknown. */
+    public void add(MethodSignature methodSig, int bodyLine, List<CallSite> methodSites,
+                    Set<String> dispatch, Set<String> referenced) {
+        if (bodyLine != -1) {
+            bodyLines.put(methodSig, bodyLine);
+        }
+        if (!methodSites.isEmpty()) {
+            sites.put(methodSig, methodSites);
+        }
+        if (!dispatch.isEmpty()) {
+            dispatchTypes.put(methodSig, dispatch);
+        }
+        if (!referenced.isEmpty()) {
+            referencedTypes.put(methodSig, referenced);
+        }
+    }
+
+    /** Every method with an entry in the index. */
+    public Set<MethodSignature> methods() {
+        Set<MethodSignature> methods = new HashSet<>(bodyLines.keySet());
+        methods.addAll(sites.keySet());
+        methods.addAll(dispatchTypes.keySet());
+        methods.addAll(referencedTypes.keySet());
+        return methods;
+    }
+
+    /** Call sites of the method in statement order, empty if it has none or no body. */
+    public List<CallSite> sitesOf(MethodSignature methodSig) {
+        return sites.getOrDefault(methodSig, Collections.emptyList());
+    }
+
+    /** First source line of the method's body, or -1 if unknown. */
+    public int bodyLine(MethodSignature methodSig) {
+        return bodyLines.getOrDefault(methodSig, -1);
+    }
+
+    /**
+     * Source line printed in output.txt for the call from {@code caller} to {@code callee}:
+     * the first call site that names the callee, else the caller's body line.
+     */
+    public int edgeLine(MethodSignature caller, MethodSignature callee) {
+        for (CallSite site : sitesOf(caller)) {
+            if (site.callee.equals(callee)) {
+                return site.line;
+            }
+        }
+        return bodyLine(caller);
+    }
+
+    /** Declared classes of the method's virtual and interface calls. */
+    public Set<String> dispatchTypesOf(MethodSignature methodSig) {
+        return dispatchTypes.getOrDefault(methodSig, Collections.emptySet());
+    }
+
+    /** Classes the method calls statically or specially, instantiates, or reads static fields of. */
+    public Set<String> referencedTypesOf(MethodSignature methodSig) {
+        return referencedTypes.getOrDefault(methodSig, Collections.emptySet());
+    }
+
+    public static class CallSite {
+        public final MethodSignature callee;
+        public final int line;
+        public final int stmtIndex;
+
+        public CallSite(MethodSignature callee, int line, int stmtIndex) {
+            this.callee = callee;
+            this.line = line;
+            this.stmtIndex = stmtIndex;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+import sootup.core.signatures.MethodSignature;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * Renders the "to" tree below a method, reusing each method's expansion across roots.
+ *
+ * A subtree printed under one root is only reused under another root if none of its
+ * methods were already visited there, so the output is the same as a fresh walk.
+ * Optional depth and node budgets cut off a root's tree with a truncation marker.
+ * All per-method state is kept in arrays indexed by {@link CompactCallGraph} ids, and
+ * callee order comes from the {@link CallSiteIndex} rather than the method bodies.
+ */
+public class CallTreeTraversal {
+    // a budget cut the subtree off, so it must not be reused elsewhere
+    private static final int TRUNCATED = Integer.MIN_VALUE;
+    private static final int[] NO_CALLEES = new int[0];
+
+    private final CompactCallGraph graph;
+    private final CallSiteIndex callSites;
+    private final int maxDepth;
+    private final int maxNodes;
+
+    // ordered callees and their printed lines per caller, computed on first visit
+    private final int[][] callees;
+    private final String[][] labels;
+    // rendered subtrees that did not depend on what the root had already visited
+    private final Subtree[] subtreeCache;
+
+    // per-root state; visitSeq is -1 for methods not visited under the current root
+    private final int[] visitSeq;
+    private int[] visitOrder = new int[64];
+    private int visitCount;
+    private String[] lines = new String[256];
+    private int[] lineDepths = new int[256];
+    private int lineCount;
+    private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+    private int nodeCount;
+
+    // scratch sets for computing a caller's callee order
+    private final BitSet isTarget = new BitSet();
+    private final BitSet emitted = new BitSet();
+
+    public CallTreeTraversal(CompactCallGraph graph, CallSiteIndex callSites) {
+        this(graph, callSites, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public CallTreeTraversal(CompactCallGraph graph, CallSiteIndex callSites, int maxDepth, int maxNodes) {
+        this.graph = graph;
+        this.callSites = callSites;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.callees = new int[graph.size()][];
+        this.labels = new String[graph.size()][];
+        this.subtreeCache = new Subtree[graph.size()];
+        this.visitSeq = new int[graph.size()];
+        Arrays.fill(visitSeq, -1);
+    }
+
+    /** Writes the tree below {@code root} to the writer. */
+    public void traverse(MethodSignature root, Writer writer, int depth) throws IOException {
+        writer.write(render(root, depth));
+    }
+
+    /**
+     * Returns the tree below {@code root} as text. An instance keeps per-root state, so
+     * it must only be used by one thread at a time.
+     */
+    public String render(MethodSignature root, int depth) {
+        for (int i = 0; i < visitCount; i++) {
+            visitSeq[visitOrder[i]] = -1;
+        }
+        visitCount = 0;
+        lineCount = 0;
+        stack.clear();
+        nodeCount = 0;
+
+        int rootId = graph.id(root);
+        if (rootId >= 0) {
+            walk(rootId, depth);
+        }
+
+        StringBuilder tree = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            for (int d = 0; d < lineDepths[i]; d++) {
+                tree.append("    ");
+            }
+            tree.append(lines[i]);
+        }
+        return tree.toString();
+    }
+
+    // Depth-first walk on an explicit stack so long call chains cannot overflow the
+    // thread stack. Each frame tracks the smallest visit sequence number of an already
+    // visited method its subtree ran into (Integer.MAX_VALUE if none).
+    private void walk(int root, int depth) {
+        enter(root, depth);
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            int[] calls = callees[frame.method];
+
+            if (frame.next < calls.length) {
+                if (nodeCount >= maxNodes) {
+                    addLine("[truncated: max nodes " + maxNodes + "]\n", frame.depth);
+                    // nothing more is printed for this root
+                    stack.clear();
+                    return;
+                }
+                int i = frame.next++;
+                addLine(labels[frame.method][i], frame.depth);
+                nodeCount++;
+                frame.minHit = Math.min(frame.minHit, enter(calls[i], frame.depth + 1));
+                continue;
+            }
+
+            stack.pop();
+            // Nothing outside this subtree influenced it, so any later root can reuse it
+            if (frame.minHit >= frame.seq && subtreeCache[frame.method] == null) {
+                cacheSubtree(frame);
+            }
+            Frame parent = stack.peek();
+            if (parent != null) {
+                parent.minHit = Math.min(parent.minHit, frame.minHit);
+            }
+        }
+    }
+
+    // Starts expanding a method. Returns the result right away when the method needs no
+    // frame of its own, otherwise pushes a frame and returns Integer.MAX_VALUE.
+    private int enter(int method, int depth) {
+        // Prevent infinite loops
+        if (visitSeq[method] >= 0) {
+            return visitSeq[method];
+        }
+
+        Subtree cached = subtreeCache[method];
+        if (cached != null && fitsBudget(cached, depth) && !reachesVisited(cached)) {
+            for (int m : cached.reach) {
+                markVisited(m);
+            }
+            for (int i = 0; i < cached.lines.length; i++) {
+                addLine(cached.lines[i], depth + cached.depths[i]);
+            }
+            nodeCount += cached.lines.length;
+            return Integer.MAX_VALUE;
+        }
+
+        if (callees[method] == null) {
+            computeCalls(method);
+        }
+        if (depth > maxDepth) {
+            if (callees[method].length == 0) {
+                return Integer.MAX_VALUE;
+            }
+            // left unvisited so a shallower path can still expand it
+            addLine("[truncated: max depth " + maxDepth + "]\n", depth);
+            return TRUNCATED;
+        }
+
+        int seq = markVisited(method);
+        stack.push(new Frame(method, depth, seq, lineCount));
+        return Integer.MAX_VALUE;
+    }
+
+    private void addLine(String line, int depth) {
+        if (lineCount == lines.length) {
+            lines = Arrays.copyOf(lines, lineCount * 2);
+            lineDepths = Arrays.copyOf(lineDepths, lineCount * 2);
+        }
+        lines[lineCount] = line;
+        lineDepths[lineCount] = depth;
+        lineCount++;
+    }
+
+    private boolean fitsBudget(Subtree subtree, int depth) {
+        return depth + subtree.maxDepth <= maxDepth
+                && (long) nodeCount + subtree.lines.length <= maxNodes;
+    }
+
+    private void cacheSubtree(Frame frame) {
+        int n = lineCount - frame.firstLine;
+        String[] subLines = Arrays.copyOfRange(lines, frame.firstLine, lineCount);
+        int[] subDepths = new int[n];
+        for (int i = 0; i < n; i++) {
+            subDepths[i] = lineDepths[frame.firstLine + i] - frame.depth;
+        }
+        int[] reach = Arrays.copyOfRange(visitOrder, frame.seq, visitCount);
+        subtreeCache[frame.method] = new Subtree(subLines, subDepths, reach);
+    }
+
+    private int markVisited(int method) {
+        if (visitCount == visitOrder.length) {
+            visitOrder = Arrays.copyOf(visitOrder, visitCount * 2);
+        }
+        int seq = visitCount++;
+        visitOrder[seq] = method;
+        visitSeq[method] = seq;
+        return seq;
+    }
+
+    private boolean reachesVisited(Subtree subtree) {
+        for (int m : subtree.reach) {
+            if (visitSeq[m] >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void computeCalls(int methodId) {
+        int start = graph.targetsStart(methodId);
+        int end = graph.targetsEnd(methodId);
+        if (start == end) {
+            callees[methodId] = NO_CALLEES;
+            labels[methodId] = new String[0];
+            return;
+        }
+
+        int[] calls = new int[end - start];
+        String[] callLabels = new String[end - start];
+        int n = 0;
+        MethodSignature methodSig = graph.signature(methodId);
+
+        // All call targets from the call graph (may be unordered)
+        isTarget.clear();
+        emitted.clear();
+        for (int i = start; i < end; i++) {
+            isTarget.set(graph.targetAt(i));
+        }
+
+        // We'll list targets in source-order by walking the caller's call sites and
+        // taking any invocation that matches a cg target. Track which
+        // targets we've already taken so we can add the remainder afterwards.
+        for (CallSiteIndex.CallSite site : callSites.sitesOf(methodSig)) {
+            int called = graph.id(site.callee);
+            if (called >= 0 && isTarget.get(called) && !emitted.get(called)) {
+                calls[n] = called;
+                callLabels[n] = label(site.callee, site.line);
+                n++;
+                emitted.set(called);
+            }
+        }
+
+        // Add any remaining targets that weren't found in source order
+        int line = callSites.bodyLine(methodSig);
+        for (int i = start; i < end; i++) {
+            int callee = graph.targetAt(i);
+            if (emitted.get(callee)) continue;
+            calls[n] = callee;
+            callLabels[n] = label(graph.signature(callee), line);
+            n++;
+        }
+
+        callees[methodId] = calls;
+        labels[methodId] = callLabels;
+    }
+
+    private static String label(MethodSignature callee, int line) {
+        return "to <" + callee.getDeclClassType() + ": " + callee.getType() + " " + callee.getName() + ">" + " (line " + line + ")\n";
+    }
+
+    private static class Subtree {
+        final String[] lines;
+        final int[] depths;
+        final int maxDepth;
+        final int[] reach;
+
+        Subtree(String[] lines, int[] depths, int[] reach) {
+            this.lines = lines;
+            this.depths = depths;
+            this.reach = reach;
+            int deepest = 0;
+            for (int d : depths) {
+                deepest = Math.max(deepest, d);
+            }
+            this.maxDepth = deepest;
+        }
+    }
+
+    private static class Frame {
+        final int method;
+        final int depth;
+        final int seq;
+        final int firstLine;
+        int next;
+        int minHit = Integer.MAX_VALUE;
+
+        Frame(int method, int depth, int seq, int firstLine) {
+            this.method = method;
+            this.depth = depth;
+            this.seq = seq;
+            this.firstLine = firstLine;
+        }
+    }
+}
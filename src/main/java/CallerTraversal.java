@@ -0,0 +1,199 @@
+import sootup.core.signatures.MethodSignature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Walks the incoming edges of a method breadth-first, using the reverse index of
+ * {@link CompactCallGraph}, to find everything that can call into it.
+ *
+ * Each caller is reported once, at its shortest distance from the root, together with
+ * the method it calls on that path. Printed as a tree, every path from a caller down to
+ * the root is one of the shortest. Optional depth and node budgets stop the walk early.
+ */
+public class CallerTraversal {
+    private final CompactCallGraph graph;
+    private final CallSiteIndex callSites;
+    private final int maxDepth;
+    private final int maxNodes;
+
+    public CallerTraversal(CompactCallGraph graph, CallSiteIndex callSites) {
+        this(graph, callSites, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public CallerTraversal(CompactCallGraph graph, CallSiteIndex callSites, int maxDepth, int maxNodes) {
+        this.graph = graph;
+        this.callSites = callSites;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    /** The callers of {@code root} as an indented "from" tree, in the style of output.txt. */
+    public String render(MethodSignature root, int depth) {
+        return walk(root).render(depth);
+    }
+
+    /** Transitive callers of {@code root}; none if it is not in the graph. */
+    public Result walk(MethodSignature root) {
+        Result result = new Result();
+        int rootId = graph.id(root);
+        if (rootId < 0) {
+            result.callers = Collections.emptyList();
+            result.cutBelow = new boolean[1];
+            return result;
+        }
+
+        // position of each visited method in the breadth-first order, -1 for the root
+        int[] position = new int[graph.size()];
+        Arrays.fill(position, Integer.MIN_VALUE);
+        position[rootId] = -1;
+        List<Caller> callers = new ArrayList<>();
+        List<Boolean> cut = new ArrayList<>();
+        cut.add(false);
+
+        int[] queue = new int[graph.size()];
+        int[] depths = new int[graph.size()];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = rootId;
+        while (head < tail && !result.nodesCut) {
+            int method = queue[head];
+            int depth = depths[head++];
+            for (int i = graph.callersStart(method); i < graph.callersEnd(method); i++) {
+                int caller = graph.callerAt(i);
+                if (position[caller] != Integer.MIN_VALUE) continue;
+                if (depth == maxDepth) {
+                    // a caller exists beyond the budget
+                    cut.set(position[method] + 1, true);
+                    break;
+                }
+                if (callers.size() == maxNodes) {
+                    result.nodesCut = true;
+                    break;
+                }
+                MethodSignature callerSig = graph.signature(caller);
+                MethodSignature calleeSig = graph.signature(method);
+                position[caller] = callers.size();
+                callers.add(new Caller(callerSig, calleeSig, depth + 1, callSites.edgeLine(callerSig, calleeSig)));
+                cut.add(false);
+                queue[tail] = caller;
+                depths[tail++] = depth + 1;
+            }
+        }
+
+        result.callers = callers;
+        result.position = position;
+        result.cutBelow = new boolean[cut.size()];
+        for (int i = 0; i < cut.size(); i++) {
+            result.cutBelow[i] = cut.get(i);
+        }
+        return result;
+    }
+
+    // pushed in reverse so the first child is printed first
+    private static int pushChildren(int[] stack, int top, int node, int[] childStart, int[] children) {
+        for (int i = childStart[node + 1] - 1; i >= childStart[node]; i--) {
+            stack[top++] = children[i];
+        }
+        return top;
+    }
+
+    private static void indent(StringBuilder tree, int depth) {
+        for (int d = 0; d < depth; d++) {
+            tree.append("    ");
+        }
+    }
+
+    private static String label(MethodSignature caller, int line) {
+        return "from <" + caller.getDeclClassType() + ": " + caller.getType() + " " + caller.getName() + ">" + " (line " + line + ")\n";
+    }
+
+    /** A transitive caller: {@code method} calls {@code callee} at {@code line}, {@code depth} calls away from the root. */
+    public static class Caller {
+        public final MethodSignature method;
+        public final MethodSignature callee;
+        public final int depth;
+        public final int line;
+
+        public Caller(MethodSignature method, MethodSignature callee, int depth, int line) {
+            this.method = method;
+            this.callee = callee;
+            this.depth = depth;
+            this.line = line;
+        }
+    }
+
+    /** Result of {@link #walk}: the callers in breadth-first order, each at its shortest distance. */
+    public class Result {
+        private List<Caller> callers;
+        // by graph id: index in callers, -1 for the root
+        private int[] position;
+        // by tree node (0 = root, i = callers[i-1]): callers were left out below it
+        private boolean[] cutBelow;
+        private boolean nodesCut;
+
+        private Result() {
+        }
+
+        public List<Caller> callers() {
+            return callers;
+        }
+
+        /** True if a depth or node budget left callers out. */
+        public boolean truncated() {
+            if (nodesCut) {
+                return true;
+            }
+            for (boolean cut : cutBelow) {
+                if (cut) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The callers as an indented "from" tree, the callers of the root at {@code depth}. */
+        public String render(int depth) {
+            // children of each tree node, in breadth-first order; index 0 is the root
+            int[] parent = new int[callers.size()];
+            int[] childCount = new int[callers.size() + 1];
+            for (int i = 0; i < callers.size(); i++) {
+                parent[i] = position[graph.id(callers.get(i).callee)] + 1;
+                childCount[parent[i]]++;
+            }
+            int[] childStart = new int[callers.size() + 2];
+            for (int i = 0; i <= callers.size(); i++) {
+                childStart[i + 1] = childStart[i] + childCount[i];
+            }
+            int[] children = new int[callers.size()];
+            int[] fill = Arrays.copyOf(childStart, callers.size() + 1);
+            for (int i = 0; i < callers.size(); i++) {
+                children[fill[parent[i]]++] = i + 1;
+            }
+
+            // preorder on an explicit stack, like CallTreeTraversal
+            StringBuilder tree = new StringBuilder();
+            int[] stack = new int[callers.size() + 1];
+            int top = pushChildren(stack, 0, 0, childStart, children);
+            while (top > 0) {
+                int node = stack[--top];
+                Caller caller = callers.get(node - 1);
+                indent(tree, depth + caller.depth - 1);
+                tree.append(label(caller.method, caller.line));
+                if (cutBelow[node]) {
+                    indent(tree, depth + caller.depth);
+                    tree.append("[truncated: max depth ").append(maxDepth).append("]\n");
+                }
+                top = pushChildren(stack, top, node, childStart, children);
+            }
+            if (nodesCut) {
+                indent(tree, depth);
+                tree.append("[truncated: max nodes ").append(maxNodes).append("]\n");
+            }
+            return tree.toString();
+        }
+    }
+}
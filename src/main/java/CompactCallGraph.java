@@ -0,0 +1,196 @@
+import sootup.core.signatures.MethodSignature;
+import sootup.callgraph.CallGraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Read-only copy of a SootUp {@link CallGraph} with methods interned to dense ids
+ * (0..size-1) and edges stored in compressed sparse row form.
+ *
+ * The callees of method {@code m} are {@code targetAt(i)} for
+ * {@code targetsStart(m) <= i < targetsEnd(m)}, in the order the call graph
+ * returned them from {@code callTargetsFrom}. Each edge also keeps how many call
+ * sites it stands for, so {@link #callCount()} matches the source graph's {@code callCount()}.
+ * The callers of a method are indexed the same way, by {@code callersStart}/{@code callersEnd},
+ * once the first caller query is made.
+ */
+public class CompactCallGraph {
+    private final MethodSignature[] signatures;
+    private final Map<MethodSignature, Integer> ids;
+    private final int[] offsets;
+    private final int[] targets;
+    // call sites behind each edge, parallel to targets
+    private final int[] calls;
+    private final int callCount;
+    // simple class name of the graph this was copied from, e.g. GraphBasedCallGraph
+    private final String graphType;
+    // reverse adjacency, built on first use: callers of m are callers[callerOffsets[m] .. callerOffsets[m+1]-1]
+    private volatile int[] callerOffsets;
+    private int[] callers;
+    private int[] callerEdges;
+
+    private CompactCallGraph(MethodSignature[] signatures, Map<MethodSignature, Integer> ids, int[] offsets, int[] targets,
+                             int[] calls, String graphType) {
+        this.signatures = signatures;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.calls = calls;
+        this.graphType = graphType;
+        int total = 0;
+        for (int c : calls) {
+            total += c;
+        }
+        this.callCount = total;
+    }
+
+    /** Graph from raw arrays, as written by {@link GraphCache}. */
+    public static CompactCallGraph of(MethodSignature[] signatures, int[] offsets, int[] targets, int[] calls, String graphType) {
+        Map<MethodSignature, Integer> ids = new HashMap<>();
+        for (int i = 0; i < signatures.length; i++) {
+            ids.put(signatures[i], i);
+        }
+        return new CompactCallGraph(signatures, ids, offsets, targets, calls, graphType);
+    }
+
+    public static CompactCallGraph of(CallGraph cg) {
+        Map<MethodSignature, Integer> ids = new HashMap<>();
+        MethodSignature[] signatures = cg.getMethodSignatures().toArray(new MethodSignature[0]);
+        for (int i = 0; i < signatures.length; i++) {
+            ids.put(signatures[i], i);
+        }
+
+        int[] offsets = new int[signatures.length + 1];
+        int[] targets = new int[16];
+        int[] calls = new int[16];
+        int edges = 0;
+        Map<MethodSignature, Integer> sites = new HashMap<>();
+        for (int i = 0; i < signatures.length; i++) {
+            offsets[i] = edges;
+            sites.clear();
+            for (CallGraph.Call call : cg.callsFrom(signatures[i])) {
+                sites.merge(call.targetMethodSignature(), 1, Integer::sum);
+            }
+            for (MethodSignature t : cg.callTargetsFrom(signatures[i])) {
+                if (edges == targets.length) {
+                    targets = Arrays.copyOf(targets, edges * 2);
+                    calls = Arrays.copyOf(calls, edges * 2);
+                }
+                calls[edges] = sites.getOrDefault(t, 1);
+                targets[edges++] = ids.get(t);
+            }
+        }
+        offsets[signatures.length] = edges;
+
+        return new CompactCallGraph(signatures, ids, offsets, Arrays.copyOf(targets, edges),
+                Arrays.copyOf(calls, edges), cg.getClass().getSimpleName());
+    }
+
+    /** Number of methods in the graph. */
+    public int size() {
+        return signatures.length;
+    }
+
+    /** Number of distinct caller/callee pairs. */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /** Number of call sites, counting each site of a caller/callee pair once. */
+    public int callCount() {
+        return callCount;
+    }
+
+    public String graphType() {
+        return graphType;
+    }
+
+    /** Id of the method, or -1 if it is not in the graph. */
+    public int id(MethodSignature methodSig) {
+        Integer id = ids.get(methodSig);
+        return id == null ? -1 : id;
+    }
+
+    public MethodSignature signature(int id) {
+        return signatures[id];
+    }
+
+    public int targetsStart(int id) {
+        return offsets[id];
+    }
+
+    public int targetsEnd(int id) {
+        return offsets[id + 1];
+    }
+
+    public int targetAt(int index) {
+        return targets[index];
+    }
+
+    /** Number of call sites behind the edge at {@code index}. */
+    public int callsAt(int index) {
+        return calls[index];
+    }
+
+    public int callersStart(int id) {
+        return callerOffsets()[id];
+    }
+
+    public int callersEnd(int id) {
+        return callerOffsets()[id + 1];
+    }
+
+    /** Caller at {@code index} of a callers range, in id order. */
+    public int callerAt(int index) {
+        callerOffsets();
+        return callers[index];
+    }
+
+    /** Index of the edge (for {@link #callsAt}) from the caller at {@code index}. */
+    public int callerEdgeAt(int index) {
+        callerOffsets();
+        return callerEdges[index];
+    }
+
+    private int[] callerOffsets() {
+        int[] offsetsIn = callerOffsets;
+        if (offsetsIn == null) {
+            synchronized (this) {
+                offsetsIn = callerOffsets;
+                if (offsetsIn == null) {
+                    offsetsIn = buildCallers();
+                }
+            }
+        }
+        return offsetsIn;
+    }
+
+    private int[] buildCallers() {
+        int n = signatures.length;
+        int[] offsetsIn = new int[n + 1];
+        for (int target : targets) {
+            offsetsIn[target + 1]++;
+        }
+        for (int m = 0; m < n; m++) {
+            offsetsIn[m + 1] += offsetsIn[m];
+        }
+        int[] sources = new int[targets.length];
+        int[] edges = new int[targets.length];
+        int[] fill = Arrays.copyOf(offsetsIn, n);
+        for (int m = 0; m < n; m++) {
+            for (int i = offsets[m]; i < offsets[m + 1]; i++) {
+                int slot = fill[targets[i]]++;
+                sources[slot] = m;
+                edges[slot] = i;
+            }
+        }
+        callers = sources;
+        callerEdges = edges;
+        // published last; the volatile write makes the arrays above visible to other threads
+        callerOffsets = offsetsIn;
+        return offsetsIn;
+    }
+}
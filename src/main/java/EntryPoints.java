@@ -0,0 +1,128 @@
+import sootup.core.model.SootMethod;
+import sootup.core.signatures.MethodSignature;
+import sootup.java.core.AnnotationUsage;
+import sootup.java.core.JavaSootClass;
+import sootup.java.core.JavaSootMethod;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Entry point strategies for call graph construction.
+ *
+ * <ul>
+ *   <li>{@code all} - every method of every class (the default)</li>
+ *   <li>{@code main} - {@code public static void main(String[])} methods</li>
+ *   <li>{@code public} - public methods and constructors of public classes</li>
+ *   <li>{@code tests} - JUnit 4/5 and TestNG test methods, and {@code test*} methods of
+ *       JUnit 3 {@code TestCase} subclasses</li>
+ *   <li>{@code file:<path>} - signatures listed one per line in SootUp form, e.g.
+ *       {@code <Foo: void bar(int)>}; blank lines and lines starting with # are skipped</li>
+ * </ul>
+ */
+public class EntryPoints {
+    private static final Set<String> TEST_ANNOTATIONS = new HashSet<>(Arrays.asList(
+            "org.junit.Test",
+            "org.junit.jupiter.api.Test",
+            "org.junit.jupiter.api.RepeatedTest",
+            "org.junit.jupiter.api.TestFactory",
+            "org.junit.jupiter.params.ParameterizedTest",
+            "org.testng.annotations.Test"));
+
+    private EntryPoints() {
+    }
+
+    public static boolean isValidStrategy(String strategy) {
+        return strategy.equals("all") || strategy.equals("main") || strategy.equals("public")
+                || strategy.equals("tests") || (strategy.startsWith("file:") && strategy.length() > 5);
+    }
+
+    /** Entry points of the classes under the given strategy, in class/method order; warnings go to {@code log}. */
+    public static List<MethodSignature> select(String strategy, List<JavaSootClass> classes, PrintStream log) throws IOException {
+        if (strategy.startsWith("file:")) {
+            return fromFile(strategy.substring(5), classes, log);
+        }
+
+        List<MethodSignature> entryPoints = new ArrayList<>();
+        for (JavaSootClass sootClass : classes) {
+            for (JavaSootMethod method : sootClass.getMethods()) {
+                boolean selected;
+                switch (strategy) {
+                    case "main":
+                        selected = isMain(method);
+                        break;
+                    case "public":
+                        selected = sootClass.isPublic() && method.isPublic();
+                        break;
+                    case "tests":
+                        selected = isTest(sootClass, method);
+                        break;
+                    default:
+                        selected = true;
+                }
+                if (selected) {
+                    entryPoints.add(method.getSignature());
+                }
+            }
+        }
+        return entryPoints;
+    }
+
+    private static boolean isMain(SootMethod method) {
+        return method.isPublic() && method.isStatic()
+                && method.getName().equals("main")
+                && method.getReturnType().toString().equals("void")
+                && method.getParameterCount() == 1
+                && method.getParameterType(0).toString().equals("java.lang.String[]");
+    }
+
+    private static boolean isTest(JavaSootClass sootClass, JavaSootMethod method) {
+        for (AnnotationUsage annotation : method.getAnnotations()) {
+            if (TEST_ANNOTATIONS.contains(annotation.getAnnotation().getFullyQualifiedName())) {
+                return true;
+            }
+        }
+        // JUnit 3: public void testXxx() in a direct subclass of TestCase
+        return sootClass.getSuperclass().map(s -> s.getFullyQualifiedName().equals("junit.framework.TestCase")).orElse(false)
+                && method.isPublic() && !method.isStatic()
+                && method.getName().startsWith("test")
+                && method.getParameterCount() == 0;
+    }
+
+    private static List<MethodSignature> fromFile(String path, List<JavaSootClass> classes, PrintStream log) throws IOException {
+        Set<String> wanted = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                wanted.add(line);
+            }
+        }
+
+        List<MethodSignature> entryPoints = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        for (JavaSootClass sootClass : classes) {
+            for (SootMethod method : sootClass.getMethods()) {
+                String signature = method.getSignature().toString();
+                if (wanted.contains(signature)) {
+                    entryPoints.add(method.getSignature());
+                    found.add(signature);
+                }
+            }
+        }
+        for (String signature : wanted) {
+            if (!found.contains(signature)) {
+                log.println("Warning: entry point not found in project: " + signature);
+            }
+        }
+        return entryPoints;
+    }
+}
@@ -0,0 +1,440 @@
+import sootup.core.model.SootMethod;
+import sootup.core.signatures.MethodSignature;
+import sootup.core.types.ClassType;
+import sootup.core.types.Type;
+import sootup.java.core.JavaIdentifierFactory;
+import sootup.java.core.JavaSootClass;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * On-disk cache of everything {@link BuildCG} derives from the project before it writes
+ * output: the class listing, the CHA/RTA graphs and the call site index.
+ *
+ * There is one cache file per project path and construction settings (algorithms, entry
+ * points, scope rules, library). It records a SHA-256 hash of every input file; if any file
+ * was added, removed or changed the entry is stale and is either rebuilt from scratch or,
+ * with {@code --incremental}, updated by {@link IncrementalUpdate}. The files of
+ * {@code --library} are recorded by size and modification time, and the JDK of "jrt" by
+ * its home and version; a library change always rebuilds from scratch.
+ *
+ * The file is a {@link DataOutputStream} stream: header, input hashes, a table of all
+ * method signatures and one of class names, then the sections below, which refer to
+ * both by table index.
+ */
+public class GraphCache {
+    private static final int MAGIC = 0x42434731; // "BCG1"
+    // prefix of the library entries among the input hashes, which project paths never start with
+    private static final String LIBRARY = "library:";
+    private static final int VERSION = 2;
+
+    private final Path file;
+    private final String settings;
+    private final Map<String, String> inputHashes;
+    // where cache misses are reported
+    private final PrintStream log;
+    // input hashes recorded in the entry by the last read()
+    private Map<String, String> cachedHashes;
+
+    private GraphCache(Path file, String settings, Map<String, String> inputHashes, PrintStream log) {
+        this.file = file;
+        this.settings = settings;
+        this.inputHashes = inputHashes;
+        this.log = log;
+    }
+
+    /** Cache entry for the project and settings in {@code options}, hashing the project's files. */
+    public static GraphCache open(BuildCGOptions options, PrintStream log) throws IOException {
+        Path project = Paths.get(options.projectPath).toAbsolutePath().normalize();
+        StringBuilder settings = new StringBuilder();
+        settings.append("project=").append(project)
+                .append(";cha=").append(options.cha)
+                .append(";rta=").append(options.rta)
+                .append(";entry-points=").append(options.entryPoints)
+                .append(";include=").append(options.includes)
+                .append(";exclude=").append(options.excludes)
+                .append(";app-only=").append(options.appOnly)
+                .append(";library=").append(options.library == null ? null : LibraryLayer.canonical(options.library));
+        if (options.entryPoints.startsWith("file:")) {
+            settings.append(";entry-file=").append(hex(sha256(Files.readAllBytes(Paths.get(options.entryPoints.substring(5))))));
+        }
+
+        String name = "callgraph-" + hex(sha256(settings.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16) + ".bin";
+        Map<String, String> inputs = hashInputs(project);
+        if (options.library != null) {
+            for (Map.Entry<String, String> e : LibraryLayer.fingerprint(options.library).entrySet()) {
+                inputs.put(LIBRARY + e.getKey(), e.getValue());
+            }
+        }
+        return new GraphCache(Paths.get(options.cacheDir, name), settings.toString(), inputs, log);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /** Hash of every regular file under the project path (or of the path itself if it is a jar), by relative path in walk order. */
+    static Map<String, String> hashInputs(Path project) throws IOException {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        if (!Files.isDirectory(project)) {
+            hashes.put(project.getFileName().toString(), hex(sha256(Files.readAllBytes(project))));
+            return hashes;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(project)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path f : files) {
+            hashes.put(project.relativize(f).toString().replace('\\', '/'), hex(sha256(Files.readAllBytes(f))));
+        }
+        return hashes;
+    }
+
+    /**
+     * Reads the entry back even if input files changed since it was written; check with
+     * {@link #isCurrent()}. Returns null (with the reason on the log) if there is no
+     * usable entry for these settings.
+     */
+    public Snapshot read() {
+        cachedHashes = null;
+        if (!Files.isRegularFile(file)) {
+            log.println("Cache miss: no entry at " + file);
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(settings)) {
+                log.println("Cache miss: entry was written for other settings or by another version");
+                return null;
+            }
+            Map<String, String> cached = readInputHashes(in);
+            Snapshot snapshot = readSnapshot(in);
+            cachedHashes = cached;
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            log.println("Cache miss: could not read " + file + " (" + e.getMessage() + ")");
+            return null;
+        }
+    }
+
+    /** True if the entry last read was written for exactly the current input files. */
+    public boolean isCurrent() {
+        return inputHashes.equals(cachedHashes);
+    }
+
+    /** True if a file of the library, or the JDK, changed since the entry last read was written. */
+    public boolean libraryChanged() {
+        for (String path : changedInputs()) {
+            if (path.startsWith(LIBRARY)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Relative paths of input files added, removed or changed since the entry last read was
+     * written; library files are among them with a "library:" prefix.
+     */
+    public Set<String> changedInputs() {
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, String> e : cachedHashes.entrySet()) {
+            if (!e.getValue().equals(inputHashes.get(e.getKey()))) changed.add(e.getKey());
+        }
+        for (String path : inputHashes.keySet()) {
+            if (!cachedHashes.containsKey(path)) changed.add(path);
+        }
+        return changed;
+    }
+
+    /** Writes the entry, replacing any previous one for the same project and settings. */
+    public void save(Snapshot snapshot) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        // unique, so sessions saving the same entry at once do not write into each other's file
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(settings);
+            out.writeInt(inputHashes.size());
+            for (Map.Entry<String, String> e : inputHashes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+            writeSnapshot(snapshot, out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Map<String, String> readInputHashes(DataInputStream in) throws IOException {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            hashes.put(in.readUTF(), in.readUTF());
+        }
+        return hashes;
+    }
+
+    private static void writeSnapshot(Snapshot snapshot, DataOutputStream out) throws IOException {
+        // signature table
+        Map<MethodSignature, Integer> ids = new HashMap<>();
+        List<MethodSignature> table = new ArrayList<>();
+        for (List<MethodSignature> methods : snapshot.classMethods) {
+            for (MethodSignature m : methods) intern(m, ids, table);
+        }
+        for (CompactCallGraph graph : Arrays.asList(snapshot.cha, snapshot.rta)) {
+            if (graph == null) continue;
+            for (int m = 0; m < graph.size(); m++) intern(graph.signature(m), ids, table);
+        }
+        Set<MethodSignature> indexed = snapshot.callSites.methods();
+        for (MethodSignature m : indexed) {
+            intern(m, ids, table);
+            for (CallSiteIndex.CallSite site : snapshot.callSites.sitesOf(m)) intern(site.callee, ids, table);
+        }
+
+        out.writeInt(table.size());
+        for (MethodSignature m : table) {
+            out.writeUTF(m.getDeclClassType().getFullyQualifiedName());
+            out.writeUTF(m.getName());
+            out.writeUTF(m.getType().toString());
+            out.writeInt(m.getParameterTypes().size());
+            for (Type t : m.getParameterTypes()) {
+                out.writeUTF(t.toString());
+            }
+        }
+
+        // class name table for the hierarchy and dependencies
+        Map<String, Integer> nameIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, List<String>> e : snapshot.supertypes.entrySet()) {
+            intern(e.getKey(), nameIds, names);
+            for (String t : e.getValue()) intern(t, nameIds, names);
+        }
+        for (MethodSignature m : indexed) {
+            for (String t : snapshot.callSites.dispatchTypesOf(m)) intern(t, nameIds, names);
+            for (String t : snapshot.callSites.referencedTypesOf(m)) intern(t, nameIds, names);
+        }
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+
+        // class listing
+        out.writeInt(snapshot.classNames.size());
+        for (int c = 0; c < snapshot.classNames.size(); c++) {
+            out.writeUTF(snapshot.classNames.get(c));
+            List<MethodSignature> methods = snapshot.classMethods.get(c);
+            out.writeInt(methods.size());
+            for (MethodSignature m : methods) out.writeInt(ids.get(m));
+        }
+        out.writeInt(snapshot.entryPointCount);
+
+        // direct supertypes of every project class
+        out.writeInt(snapshot.supertypes.size());
+        for (Map.Entry<String, List<String>> e : snapshot.supertypes.entrySet()) {
+            out.writeInt(nameIds.get(e.getKey()));
+            writeNames(e.getValue(), nameIds, out);
+        }
+
+        writeGraph(snapshot.cha, ids, out);
+        writeGraph(snapshot.rta, ids, out);
+
+        // call site index
+        out.writeInt(indexed.size());
+        for (MethodSignature m : indexed) {
+            out.writeInt(ids.get(m));
+            out.writeInt(snapshot.callSites.bodyLine(m));
+            List<CallSiteIndex.CallSite> sites = snapshot.callSites.sitesOf(m);
+            out.writeInt(sites.size());
+            for (CallSiteIndex.CallSite site : sites) {
+                out.writeInt(ids.get(site.callee));
+                out.writeInt(site.line);
+                out.writeInt(site.stmtIndex);
+            }
+            writeNames(snapshot.callSites.dispatchTypesOf(m), nameIds, out);
+            writeNames(snapshot.callSites.referencedTypesOf(m), nameIds, out);
+        }
+    }
+
+    private static Snapshot readSnapshot(DataInputStream in) throws IOException {
+        JavaIdentifierFactory factory = JavaIdentifierFactory.getInstance();
+        MethodSignature[] table = new MethodSignature[in.readInt()];
+        for (int i = 0; i < table.length; i++) {
+            String declClass = in.readUTF();
+            String name = in.readUTF();
+            String returnType = in.readUTF();
+            List<String> params = new ArrayList<>();
+            int n = in.readInt();
+            for (int p = 0; p < n; p++) {
+                params.add(in.readUTF());
+            }
+            table[i] = factory.getMethodSignature(declClass, name, returnType, params);
+        }
+
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+
+        Snapshot snapshot = new Snapshot();
+        int classes = in.readInt();
+        for (int c = 0; c < classes; c++) {
+            snapshot.classNames.add(in.readUTF());
+            int n = in.readInt();
+            List<MethodSignature> methods = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) methods.add(table[in.readInt()]);
+            snapshot.classMethods.add(methods);
+        }
+        snapshot.entryPointCount = in.readInt();
+
+        int hierarchy = in.readInt();
+        for (int c = 0; c < hierarchy; c++) {
+            String name = names[in.readInt()];
+            snapshot.supertypes.put(name, new ArrayList<>(readNames(names, in)));
+        }
+
+        snapshot.cha = readGraph(table, in);
+        snapshot.rta = readGraph(table, in);
+
+        snapshot.callSites = new CallSiteIndex();
+        int indexed = in.readInt();
+        for (int i = 0; i < indexed; i++) {
+            MethodSignature m = table[in.readInt()];
+            int bodyLine = in.readInt();
+            int n = in.readInt();
+            List<CallSiteIndex.CallSite> sites = new ArrayList<>(n);
+            for (int s = 0; s < n; s++) {
+                sites.add(new CallSiteIndex.CallSite(table[in.readInt()], in.readInt(), in.readInt()));
+            }
+            Set<String> dispatch = readNames(names, in);
+            snapshot.callSites.add(m, bodyLine, sites, dispatch, readNames(names, in));
+        }
+        return snapshot;
+    }
+
+    private static void writeGraph(CompactCallGraph graph, Map<MethodSignature, Integer> ids, DataOutputStream out) throws IOException {
+        out.writeBoolean(graph != null);
+        if (graph == null) return;
+        out.writeUTF(graph.graphType());
+        out.writeInt(graph.size());
+        for (int m = 0; m < graph.size(); m++) {
+            out.writeInt(ids.get(graph.signature(m)));
+            out.writeInt(graph.targetsEnd(m) - graph.targetsStart(m));
+        }
+        out.writeInt(graph.edgeCount());
+        for (int i = 0; i < graph.edgeCount(); i++) {
+            out.writeInt(graph.targetAt(i));
+            out.writeInt(graph.callsAt(i));
+        }
+    }
+
+    private static CompactCallGraph readGraph(MethodSignature[] table, DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        String graphType = in.readUTF();
+        int n = in.readInt();
+        MethodSignature[] signatures = new MethodSignature[n];
+        int[] offsets = new int[n + 1];
+        for (int m = 0; m < n; m++) {
+            signatures[m] = table[in.readInt()];
+            offsets[m + 1] = offsets[m] + in.readInt();
+        }
+        int edges = in.readInt();
+        int[] targets = new int[edges];
+        int[] calls = new int[edges];
+        for (int i = 0; i < edges; i++) {
+            targets[i] = in.readInt();
+            calls[i] = in.readInt();
+        }
+        return CompactCallGraph.of(signatures, offsets, targets, calls, graphType);
+    }
+
+    private static <T> void intern(T value, Map<T, Integer> ids, List<T> table) {
+        if (!ids.containsKey(value)) {
+            ids.put(value, table.size());
+            table.add(value);
+        }
+    }
+
+    private static void writeNames(Collection<String> values, Map<String, Integer> nameIds, DataOutputStream out) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeInt(nameIds.get(value));
+        }
+    }
+
+    private static Set<String> readNames(String[] names, DataInputStream in) throws IOException {
+        int n = in.readInt();
+        Set<String> values = new LinkedHashSet<>();
+        for (int i = 0; i < n; i++) {
+            values.add(names[in.readInt()]);
+        }
+        return values;
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /** What a run needs from the project once the graphs are built. */
+    public static class Snapshot {
+        // classes in view order with their methods in declaration order
+        public List<String> classNames = new ArrayList<>();
+        public List<List<MethodSignature>> classMethods = new ArrayList<>();
+        public int entryPointCount;
+        // direct superclass and interfaces of every project class
+        public Map<String, List<String>> supertypes = new LinkedHashMap<>();
+        public CompactCallGraph cha;
+        public CompactCallGraph rta;
+        public CallSiteIndex callSites;
+
+        /** Records the class's name, methods and direct supertypes at the end of the listing. */
+        public void addClass(JavaSootClass sootClass) {
+            List<MethodSignature> methods = new ArrayList<>();
+            for (SootMethod method : sootClass.getMethods()) {
+                methods.add(method.getSignature());
+            }
+            classNames.add(sootClass.getType().toString());
+            classMethods.add(methods);
+
+            List<String> supers = new ArrayList<>();
+            sootClass.getSuperclass().ifPresent(c -> supers.add(c.getFullyQualifiedName()));
+            for (ClassType c : sootClass.getInterfaces()) {
+                supers.add(c.getFullyQualifiedName());
+            }
+            supertypes.put(sootClass.getType().getFullyQualifiedName(), supers);
+        }
+    }
+}
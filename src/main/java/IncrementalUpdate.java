@@ -0,0 +1,286 @@
+import sootup.core.inputlocation.AnalysisInputLocation;
+import sootup.core.model.SootClass;
+import sootup.core.model.SootMethod;
+import sootup.core.signatures.MethodSignature;
+import sootup.callgraph.CallGraph;
+import sootup.java.bytecode.frontend.inputlocation.JavaClassPathAnalysisInputLocation;
+import sootup.java.core.JavaSootClass;
+import sootup.java.core.views.JavaView;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/**
+ * Brings a stale cached {@link GraphCache.Snapshot} up to date after some class files
+ * changed, re-resolving only the methods whose CHA edges can have changed.
+ *
+ * With {@code D} the changed, added and removed classes, {@code H} is {@code D} plus all
+ * their subclasses and implementers, before and after the change. A method is re-resolved if
+ * its class is in {@code D}, if it calls, instantiates or reads a static field of a class in
+ * {@code H} (which decides the resolved target and the static initializers), or if it makes a
+ * virtual or interface call on {@code H} or a supertype of it (whose subtypes CHA dispatches
+ * to). Every other method keeps its cached edges. The graph is then walked again from the
+ * entry points so that methods no longer reached drop out and newly reached ones are resolved.
+ *
+ * The class listing and type hierarchy are read from all class files as in a full build, but
+ * only the re-resolved methods have their bodies lifted. RTA depends on the classes
+ * instantiated anywhere in the program, so when it is selected it is rebuilt in full.
+ */
+public class IncrementalUpdate {
+    public GraphCache.Snapshot snapshot;
+    public int changedClasses;
+    public int resolvedMethods;
+    public int reusedMethods;
+    private long chaMillis;
+    private long rtaMillis = -1;
+    private long totalMillis;
+
+    /** True if the project and options allow an incremental update at all. */
+    public static boolean supports(BuildCGOptions options) {
+        return options.cha && Files.isDirectory(Paths.get(options.projectPath));
+    }
+
+    public static IncrementalUpdate run(GraphCache.Snapshot old, Collection<String> changedFiles, BuildCGOptions options,
+                                        PrintStream log) throws Exception {
+        IncrementalUpdate update = new IncrementalUpdate();
+        long t0 = System.nanoTime();
+
+        Set<String> delta = new HashSet<>();
+        for (String path : changedFiles) {
+            if (path.endsWith(".class") && !path.endsWith("module-info.class")) {
+                delta.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+        update.changedClasses = delta.size();
+
+        AnalysisInputLocation inputLocation = new JavaClassPathAnalysisInputLocation(options.projectPath);
+        JavaView view = LibraryLayer.openView(options, inputLocation);
+        List<JavaSootClass> allClasses = view.getClasses().filter(SootClass::isApplicationClass).collect(Collectors.toList());
+
+        GraphCache.Snapshot snapshot = new GraphCache.Snapshot();
+        for (JavaSootClass sootClass : allClasses) {
+            snapshot.addClass(sootClass);
+        }
+        List<MethodSignature> entryPoints = EntryPoints.select(options.entryPoints, allClasses, log);
+        snapshot.entryPointCount = entryPoints.size();
+        ScopeRules scope = ScopeRules.of(options, () -> new ArrayList<>(snapshot.supertypes.keySet()));
+
+        // classes whose hierarchy changed, and every supertype of those
+        Set<String> hierarchy = new HashSet<>(delta);
+        hierarchy.addAll(subtypes(delta, old.supertypes));
+        hierarchy.addAll(subtypes(delta, snapshot.supertypes));
+        Set<String> dispatchAffected = supertypes(hierarchy, old.supertypes);
+        dispatchAffected.addAll(supertypes(hierarchy, snapshot.supertypes));
+
+        long tCha = System.nanoTime();
+        snapshot.cha = update.updateCha(old, snapshot, view, scope, entryPoints, delta, hierarchy, dispatchAffected);
+        update.chaMillis = (System.nanoTime() - tCha) / 1_000_000;
+
+        if (options.rta) {
+            long tRta = System.nanoTime();
+            snapshot.rta = CompactCallGraph.of(ScopedAlgorithms.rta(view, scope).initialize(entryPoints));
+            update.rtaMillis = (System.nanoTime() - tRta) / 1_000_000;
+        }
+
+        // call sites of every reached project method, copied unless the class changed or it was not reached before
+        snapshot.callSites = new CallSiteIndex();
+        for (JavaSootClass sootClass : allClasses) {
+            boolean changed = delta.contains(sootClass.getType().getFullyQualifiedName());
+            for (SootMethod method : sootClass.getMethods()) {
+                MethodSignature sig = method.getSignature();
+                if (!contains(snapshot.cha, sig) && !contains(snapshot.rta, sig)) continue;
+                if (!changed && (contains(old.cha, sig) || contains(old.rta, sig))) {
+                    snapshot.callSites.copy(old.callSites, sig);
+                } else {
+                    snapshot.callSites.add(method);
+                }
+            }
+        }
+
+        update.snapshot = snapshot;
+        update.totalMillis = (System.nanoTime() - t0) / 1_000_000;
+        return update;
+    }
+
+    private CompactCallGraph updateCha(GraphCache.Snapshot old, GraphCache.Snapshot snapshot, JavaView view, ScopeRules scope,
+                                       List<MethodSignature> entryPoints, Set<String> delta, Set<String> hierarchy,
+                                       Set<String> dispatchAffected) {
+        CompactCallGraph oldCha = old.cha;
+        Set<String> projectClasses = snapshot.supertypes.keySet();
+
+        // same roots as the full algorithm: entry points, then the static initializers of their classes
+        Deque<MethodSignature> work = new ArrayDeque<>(entryPoints);
+        Set<String> entryClasses = new LinkedHashSet<>();
+        for (MethodSignature entry : entryPoints) {
+            entryClasses.add(entry.getDeclClassType().toString());
+        }
+        for (int c = 0; c < snapshot.classNames.size(); c++) {
+            if (!entryClasses.contains(snapshot.classNames.get(c))) continue;
+            for (MethodSignature sig : snapshot.classMethods.get(c)) {
+                if (sig.getName().equals("<clinit>") && sig.getParameterTypes().isEmpty()) work.add(sig);
+            }
+        }
+
+        Set<MethodSignature> processed = new HashSet<>();
+        Set<MethodSignature> nodes = new LinkedHashSet<>();
+        Map<MethodSignature, List<MethodSignature>> targets = new HashMap<>();
+        Map<MethodSignature, List<Integer>> calls = new HashMap<>();
+        List<MethodSignature> batch = new ArrayList<>();
+
+        while (!work.isEmpty() || !batch.isEmpty()) {
+            if (work.isEmpty()) {
+                // resolve the pending methods in one pass, then follow their callees
+                CompactCallGraph part = CompactCallGraph.of(ScopedAlgorithms.chaEntriesOnly(view, scope).initialize(batch));
+                for (MethodSignature m : batch) {
+                    List<MethodSignature> mTargets = new ArrayList<>();
+                    List<Integer> mCalls = new ArrayList<>();
+                    int id = part.id(m);
+                    if (id >= 0) {
+                        for (int i = part.targetsStart(id); i < part.targetsEnd(id); i++) {
+                            mTargets.add(part.signature(part.targetAt(i)));
+                            mCalls.add(part.callsAt(i));
+                        }
+                    }
+                    follow(m, mTargets, mCalls, nodes, targets, calls, work, scope);
+                }
+                resolvedMethods += batch.size();
+                batch.clear();
+                continue;
+            }
+
+            MethodSignature m = work.pop();
+            if (!processed.add(m)) continue;
+            String declClass = m.getDeclClassType().getFullyQualifiedName();
+            if (!projectClasses.contains(declClass)) continue;
+            nodes.add(m);
+
+            int id = oldCha.id(m);
+            if (id < 0 || delta.contains(declClass) || isAffected(old.callSites, m, hierarchy, dispatchAffected)) {
+                batch.add(m);
+                continue;
+            }
+            List<MethodSignature> mTargets = new ArrayList<>();
+            List<Integer> mCalls = new ArrayList<>();
+            for (int i = oldCha.targetsStart(id); i < oldCha.targetsEnd(id); i++) {
+                mTargets.add(oldCha.signature(oldCha.targetAt(i)));
+                mCalls.add(oldCha.callsAt(i));
+            }
+            follow(m, mTargets, mCalls, nodes, targets, calls, work, scope);
+            reusedMethods++;
+        }
+
+        // methods that were in the old graph keep their relative order, new ones follow
+        List<MethodSignature> order = new ArrayList<>(nodes.size());
+        for (int i = 0; i < oldCha.size(); i++) {
+            if (nodes.contains(oldCha.signature(i))) order.add(oldCha.signature(i));
+        }
+        for (MethodSignature m : nodes) {
+            if (oldCha.id(m) < 0) order.add(m);
+        }
+        Map<MethodSignature, Integer> ids = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            ids.put(order.get(i), i);
+        }
+
+        int[] offsets = new int[order.size() + 1];
+        int edges = 0;
+        for (int i = 0; i < order.size(); i++) {
+            offsets[i] = edges;
+            edges += targets.getOrDefault(order.get(i), Collections.emptyList()).size();
+        }
+        offsets[order.size()] = edges;
+        int[] edgeTargets = new int[edges];
+        int[] edgeCalls = new int[edges];
+        for (int i = 0; i < order.size(); i++) {
+            List<MethodSignature> mTargets = targets.getOrDefault(order.get(i), Collections.emptyList());
+            List<Integer> mCalls = calls.getOrDefault(order.get(i), Collections.emptyList());
+            for (int j = 0; j < mTargets.size(); j++) {
+                edgeTargets[offsets[i] + j] = ids.get(mTargets.get(j));
+                edgeCalls[offsets[i] + j] = mCalls.get(j);
+            }
+        }
+        return CompactCallGraph.of(order.toArray(new MethodSignature[0]), offsets, edgeTargets, edgeCalls, oldCha.graphType());
+    }
+
+    // records m's edges and queues the callees the full algorithm would expand
+    private static void follow(MethodSignature m, List<MethodSignature> mTargets, List<Integer> mCalls,
+                               Set<MethodSignature> nodes, Map<MethodSignature, List<MethodSignature>> targets,
+                               Map<MethodSignature, List<Integer>> calls, Deque<MethodSignature> work, ScopeRules scope) {
+        targets.put(m, mTargets);
+        calls.put(m, mCalls);
+        for (MethodSignature t : mTargets) {
+            if (nodes.add(t) && (scope == null || scope.contains(t.getDeclClassType()))) {
+                work.push(t);
+            }
+        }
+    }
+
+    private static boolean isAffected(CallSiteIndex index, MethodSignature m, Set<String> hierarchy, Set<String> dispatchAffected) {
+        for (String type : index.referencedTypesOf(m)) {
+            if (hierarchy.contains(type)) return true;
+        }
+        for (String type : index.dispatchTypesOf(m)) {
+            if (dispatchAffected.contains(type)) return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(CompactCallGraph graph, MethodSignature sig) {
+        return graph != null && graph.id(sig) >= 0;
+    }
+
+    // all transitive subtypes of the classes, not including themselves
+    private static Set<String> subtypes(Set<String> classes, Map<String, List<String>> supertypes) {
+        Map<String, List<String>> direct = new HashMap<>();
+        for (Map.Entry<String, List<String>> e : supertypes.entrySet()) {
+            for (String s : e.getValue()) {
+                direct.computeIfAbsent(s, k -> new ArrayList<>()).add(e.getKey());
+            }
+        }
+        Set<String> result = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(classes);
+        while (!work.isEmpty()) {
+            for (String sub : direct.getOrDefault(work.pop(), Collections.emptyList())) {
+                if (result.add(sub)) work.push(sub);
+            }
+        }
+        return result;
+    }
+
+    // the classes and all their transitive supertypes
+    private static Set<String> supertypes(Set<String> classes, Map<String, List<String>> supertypes) {
+        Set<String> result = new HashSet<>(classes);
+        Deque<String> work = new ArrayDeque<>(classes);
+        while (!work.isEmpty()) {
+            for (String sup : supertypes.getOrDefault(work.pop(), Collections.emptyList())) {
+                if (result.add(sup)) work.push(sup);
+            }
+        }
+        return result;
+    }
+
+    public void printStats(PrintStream out) {
+        out.println("Incremental update:");
+        out.println("  Changed classes: " + changedClasses);
+        out.println("  Methods re-resolved: " + resolvedMethods + ", reused: " + reusedMethods);
+        out.println("  CHA: " + chaMillis + " ms");
+        if (rtaMillis >= 0) {
+            out.println("  RTA (full rebuild): " + rtaMillis + " ms");
+        }
+        out.println("  Wall: " + totalMillis + " ms");
+    }
+}
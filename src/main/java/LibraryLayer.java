@@ -0,0 +1,313 @@
+import sootup.core.cache.ClassCache;
+import sootup.core.cache.FullCache;
+import sootup.core.frontend.SootClassSource;
+import sootup.core.inputlocation.AnalysisInputLocation;
+import sootup.core.model.SootClass;
+import sootup.core.model.SourceType;
+import sootup.core.transform.BodyInterceptor;
+import sootup.core.types.ClassType;
+import sootup.core.views.View;
+import sootup.java.bytecode.frontend.inputlocation.JavaClassPathAnalysisInputLocation;
+import sootup.java.bytecode.frontend.inputlocation.JrtFileSystemAnalysisInputLocation;
+import sootup.java.core.JavaSootClass;
+import sootup.java.core.JavaSootClassSource;
+import sootup.java.core.views.JavaView;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Library classes, the JDK through jrt:/ or jars and class directories, resolved once per
+ * JVM and shared read-only by the views of any number of projects ({@code --library}).
+ *
+ * A layer has its own {@link JavaView} over the library alone. Library classes are parsed
+ * there, and their bodies lifted there, once, by whichever project needs them first;
+ * library code never refers to a project, so that view is all it needs. The view
+ * {@link #openView} gives a project answers library types from the layer's classes and
+ * lists them after the project's own, so its type hierarchy spans both without reading
+ * a library class file again. A project class shadows a library class of the same name.
+ *
+ * Without {@code --library} a view holds the project only, as before.
+ */
+public class LibraryLayer {
+    // one layer per --library value, shared by every session of the JVM
+    private static final Map<String, LibraryLayer> LAYERS = new ConcurrentHashMap<>();
+
+    private final String spec;
+    private final List<AnalysisInputLocation> locations;
+    private final JavaView view;
+    // library classes looked up so far; empty for types the library does not have
+    private final Map<ClassType, Optional<JavaSootClass>> classes = new ConcurrentHashMap<>();
+    // every library class, listed the first time a view enumerates its classes
+    private volatile List<JavaSootClass> all;
+
+    private LibraryLayer(String spec) throws IOException {
+        this.spec = spec;
+        this.locations = locations(spec);
+        this.view = new JavaView(locations);
+    }
+
+    /** The JVM-wide layer for a {@code --library} value. */
+    public static LibraryLayer shared(String spec) throws IOException {
+        LibraryLayer layer = LAYERS.get(spec);
+        if (layer == null) {
+            LibraryLayer created = new LibraryLayer(spec);
+            layer = LAYERS.putIfAbsent(spec, created);
+            if (layer == null) {
+                layer = created;
+            }
+        }
+        return layer;
+    }
+
+    /** View of the project, on top of the shared library layer if {@code options.library} is set. */
+    public static JavaView openView(BuildCGOptions options, AnalysisInputLocation project) throws IOException {
+        if (options.library == null) {
+            return new JavaView(Collections.singletonList(project));
+        }
+        return shared(options.library).view(project, projectClassNames(options.projectPath));
+    }
+
+    public String spec() {
+        return spec;
+    }
+
+    /** Number of library classes resolved so far. */
+    public int loadedCount() {
+        return view.getCachedClassesCount();
+    }
+
+    private JavaView view(AnalysisInputLocation project, Set<String> projectClasses) {
+        return new JavaView(Arrays.asList(project, new SharedLocation(projectClasses)),
+                () -> new LayeredCache(projectClasses));
+    }
+
+    private Optional<JavaSootClass> find(ClassType type) {
+        Optional<JavaSootClass> found = classes.get(type);
+        if (found == null) {
+            // JavaView.getClass is synchronized, so each class is built once
+            found = view.getClass(type);
+            Optional<JavaSootClass> raced = classes.putIfAbsent(type, found);
+            if (raced != null) {
+                found = raced;
+            }
+        }
+        return found;
+    }
+
+    private List<JavaSootClass> all() {
+        List<JavaSootClass> listed = all;
+        if (listed == null) {
+            synchronized (this) {
+                if (all == null) {
+                    List<JavaSootClass> resolved = view.getClasses().collect(Collectors.toList());
+                    for (JavaSootClass sootClass : resolved) {
+                        classes.putIfAbsent(sootClass.getType(), Optional.of(sootClass));
+                    }
+                    all = resolved;
+                }
+                listed = all;
+            }
+        }
+        return listed;
+    }
+
+    /** The {@code --library} value with every path made absolute, so it names the same files from any directory. */
+    static String canonical(String spec) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            entries.add(entry.equals("jrt") ? entry : Paths.get(entry).toAbsolutePath().normalize().toString());
+        }
+        return String.join(",", entries);
+    }
+
+    /**
+     * Size and modification time of every file of the library by absolute path, and the
+     * JDK behind "jrt"; any difference means the library changed. Cheaper than hashing
+     * the jars on every run.
+     */
+    static Map<String, String> fingerprint(String spec) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        for (String entry : canonical(spec).split(",")) {
+            if (entry.equals("jrt")) {
+                files.put("jrt", System.getProperty("java.home") + ";" + System.getProperty("java.version"));
+                continue;
+            }
+            Path path = Paths.get(entry);
+            if (!Files.exists(path)) {
+                files.put(entry, "missing");
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(path)) {
+                for (Path file : (Iterable<Path>) walk::iterator) {
+                    if (Files.isRegularFile(file)) {
+                        files.put(file.toString(), Files.size(file) + ";" + Files.getLastModifiedTime(file).toMillis());
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    // "jrt", class directories, jars, or directories of jars such as deps/
+    private static List<AnalysisInputLocation> locations(String spec) throws IOException {
+        List<AnalysisInputLocation> locations = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            if (entry.equals("jrt")) {
+                locations.add(new JrtFileSystemAnalysisInputLocation(SourceType.Library));
+                continue;
+            }
+            Path path = Paths.get(entry);
+            if (!Files.exists(path)) {
+                throw new IOException("No such library: " + entry);
+            }
+            List<Path> jars = new ArrayList<>();
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.jar")) {
+                    files.forEach(jars::add);
+                }
+                jars.sort(null);
+            }
+            if (jars.isEmpty()) {
+                locations.add(new JavaClassPathAnalysisInputLocation(entry, SourceType.Library));
+            } else {
+                for (Path jar : jars) {
+                    locations.add(new JavaClassPathAnalysisInputLocation(jar.toString(), SourceType.Library));
+                }
+            }
+        }
+        if (locations.isEmpty()) {
+            throw new IOException("Empty --library");
+        }
+        return locations;
+    }
+
+    // class names of the project from its file names, without parsing anything
+    static Set<String> projectClassNames(String classPath) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            Path path = Paths.get(entry);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        addClassName(path.relativize(file).toString().replace('\\', '/'), names);
+                    }
+                }
+            } else if (Files.isRegularFile(path)) {
+                try (JarFile jar = new JarFile(path.toFile())) {
+                    for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                        addClassName(entries.nextElement().getName(), names);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void addClassName(String file, Set<String> names) {
+        if (file.endsWith(".class") && !file.endsWith("module-info.class") && !file.startsWith("META-INF/")) {
+            names.add(file.substring(0, file.length() - ".class".length()).replace('/', '.'));
+        }
+    }
+
+    // the layer's classes as an input location of a project view, minus those the project shadows
+    private class SharedLocation implements AnalysisInputLocation {
+        private final Set<String> projectClasses;
+
+        SharedLocation(Set<String> projectClasses) {
+            this.projectClasses = projectClasses;
+        }
+
+        @Override
+        public Optional<? extends SootClassSource> getClassSource(ClassType type, View view) {
+            if (projectClasses.contains(type.getFullyQualifiedName())) {
+                return Optional.empty();
+            }
+            return find(type).map(sootClass -> (JavaSootClassSource) sootClass.getClassSource());
+        }
+
+        @Override
+        public Stream<? extends SootClassSource> getClassSources(View view) {
+            return all().stream()
+                    .filter(sootClass -> !projectClasses.contains(sootClass.getType().getFullyQualifiedName()))
+                    .map(sootClass -> (JavaSootClassSource) sootClass.getClassSource());
+        }
+
+        @Override
+        public SourceType getSourceType() {
+            return SourceType.Library;
+        }
+
+        @Override
+        public List<BodyInterceptor> getBodyInterceptors() {
+            return locations.get(0).getBodyInterceptors();
+        }
+    }
+
+    // per-view cache that takes library classes from the layer instead of building them again
+    private class LayeredCache implements ClassCache {
+        private final ClassCache own = new FullCache();
+        private final Set<String> projectClasses;
+
+        LayeredCache(Set<String> projectClasses) {
+            this.projectClasses = projectClasses;
+        }
+
+        @Override
+        public SootClass getClass(ClassType type) {
+            SootClass sootClass = own.getClass(type);
+            if (sootClass == null && !projectClasses.contains(type.getFullyQualifiedName())) {
+                sootClass = find(type).orElse(null);
+                if (sootClass != null) {
+                    own.putClass(type, sootClass);
+                }
+            }
+            return sootClass;
+        }
+
+        @Override
+        public Collection<SootClass> getClasses() {
+            return own.getClasses();
+        }
+
+        @Override
+        public void putClass(ClassType type, SootClass sootClass) {
+            own.putClass(type, sootClass);
+        }
+
+        @Override
+        public boolean hasClass(ClassType type) {
+            return getClass(type) != null;
+        }
+
+        @Override
+        public int size() {
+            return own.size();
+        }
+    }
+}
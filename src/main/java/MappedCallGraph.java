@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Read-only view of a call graph file written by {@link CallGraphExport}.
+ *
+ * The file is memory-mapped, not read: opening it only checks the header, and each
+ * query touches just the pages it needs, so processes sharing a large graph also share
+ * its page cache. Methods are identified by the file's ids (0..size-1), and signatures
+ * are decoded only when asked for. Instances are safe to use from several threads.
+ */
+public class MappedCallGraph {
+    private final int size;
+    private final int edgeCount;
+    private final long callCount;
+    private final IntBuffer stringOffsets;
+    private final ByteBuffer stringData;
+    private final IntBuffer calleeOffsets;
+    private final IntBuffer calleeIds;
+    private final IntBuffer edgeCalls;
+    private final IntBuffer edgeLines;
+    private final IntBuffer callerOffsets;
+    private final IntBuffer callerIds;
+    private final IntBuffer callerEdges;
+
+    private MappedCallGraph(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < CallGraphExport.HEADER_SIZE) {
+            throw new IOException("Not a call graph file: too short");
+        }
+        ByteBuffer header = map(channel, 0, CallGraphExport.HEADER_SIZE);
+        if (header.getInt(0) != CallGraphExport.MAGIC) {
+            throw new IOException("Not a call graph file: bad magic");
+        }
+        if (header.getInt(4) != CallGraphExport.VERSION) {
+            throw new IOException("Unsupported call graph file version " + header.getInt(4));
+        }
+        size = header.getInt(8);
+        edgeCount = header.getInt(12);
+        callCount = header.getLong(16);
+
+        long[] offsets = new long[9];
+        for (int s = 0; s < offsets.length; s++) {
+            offsets[s] = header.getLong(24 + 8 * s);
+        }
+        stringOffsets = ints(channel, offsets[0], size + 1, fileSize);
+        stringData = bytes(channel, offsets[1], stringOffsets.get(size), fileSize);
+        calleeOffsets = ints(channel, offsets[2], size + 1, fileSize);
+        calleeIds = ints(channel, offsets[3], edgeCount, fileSize);
+        edgeCalls = ints(channel, offsets[4], edgeCount, fileSize);
+        edgeLines = ints(channel, offsets[5], edgeCount, fileSize);
+        callerOffsets = ints(channel, offsets[6], size + 1, fileSize);
+        callerIds = ints(channel, offsets[7], edgeCount, fileSize);
+        callerEdges = ints(channel, offsets[8], edgeCount, fileSize);
+    }
+
+    public static MappedCallGraph open(Path file) throws IOException {
+        // the mappings stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedCallGraph(channel);
+        }
+    }
+
+    /** Number of methods in the graph. */
+    public int size() {
+        return size;
+    }
+
+    /** Number of distinct caller/callee pairs. */
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /** Number of call sites, counting each site of a caller/callee pair once. */
+    public long callCount() {
+        return callCount;
+    }
+
+    /** Signature of the method, as in output_CHA.txt. */
+    public String signature(int id) {
+        return new String(signatureBytes(id), StandardCharsets.UTF_8);
+    }
+
+    /** Id of the method with this signature, or -1 if it is not in the graph. */
+    public int id(String signature) {
+        byte[] key = signature.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = CallGraphExport.compareBytes(signatureBytes(mid), key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int targetsStart(int id) {
+        return calleeOffsets.get(id);
+    }
+
+    public int targetsEnd(int id) {
+        return calleeOffsets.get(id + 1);
+    }
+
+    public int targetAt(int edge) {
+        return calleeIds.get(edge);
+    }
+
+    /** Number of call sites behind the edge. */
+    public int callsAt(int edge) {
+        return edgeCalls.get(edge);
+    }
+
+    /** Source line of the edge as printed in output.txt, -1 if unknown. */
+    public int lineAt(int edge) {
+        return edgeLines.get(edge);
+    }
+
+    public int callersStart(int id) {
+        return callerOffsets.get(id);
+    }
+
+    public int callersEnd(int id) {
+        return callerOffsets.get(id + 1);
+    }
+
+    /** Caller at {@code index} of the callers range, see {@link #callersStart}. */
+    public int callerAt(int index) {
+        return callerIds.get(index);
+    }
+
+    /** Edge index (for {@link #callsAt}, {@link #lineAt}) of the caller at {@code index}. */
+    public int callerEdgeAt(int index) {
+        return callerEdges.get(index);
+    }
+
+    /** Callee ids of the method, in the call graph's order. */
+    public int[] callees(int id) {
+        int[] result = new int[targetsEnd(id) - targetsStart(id)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = calleeIds.get(targetsStart(id) + i);
+        }
+        return result;
+    }
+
+    /** Caller ids of the method, in id order. */
+    public int[] callers(int id) {
+        int[] result = new int[callersEnd(id) - callersStart(id)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = callerIds.get(callersStart(id) + i);
+        }
+        return result;
+    }
+
+    private byte[] signatureBytes(int id) {
+        int start = stringOffsets.get(id);
+        byte[] bytes = new byte[stringOffsets.get(id + 1) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = stringData.get(start + i);
+        }
+        return bytes;
+    }
+
+    private static IntBuffer ints(FileChannel channel, long offset, int count, long fileSize) throws IOException {
+        return bytes(channel, offset, 4L * count, fileSize).asIntBuffer();
+    }
+
+    private static ByteBuffer bytes(FileChannel channel, long offset, long length, long fileSize) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > fileSize || length > Integer.MAX_VALUE) {
+            // files of the first writer may end before the aligned offset of an empty last section
+            if (length == 0 && offset >= 0) {
+                return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            throw new IOException("Corrupt call graph file: section out of range");
+        }
+        return map(channel, offset, length);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
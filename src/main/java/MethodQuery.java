@@ -0,0 +1,136 @@
+import sootup.core.signatures.MethodSignature;
+import sootup.core.types.ClassType;
+import sootup.java.core.JavaIdentifierFactory;
+import sootup.java.core.JavaSootClass;
+import sootup.java.core.JavaSootMethod;
+import sootup.java.core.views.JavaView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+
+/**
+ * Finds the project methods named by {@code --method}.
+ *
+ * A query is either a full signature such as {@code <Foo: int min(int,int)>}, which is
+ * looked up directly, or {@code [pkg.][Class.]name}. A fully qualified class is loaded on
+ * its own; a simple class name or a bare method name makes every project class a
+ * candidate, but only the class files are read, no method bodies. All overloads of a
+ * matching name are returned.
+ *
+ * Queries can also be resolved against the methods of a built call graph, which needs no
+ * view and also finds library methods the project calls.
+ */
+public class MethodQuery {
+    private MethodQuery() {
+    }
+
+    public static List<MethodSignature> resolve(JavaView view, String query) {
+        query = query.trim();
+        if (query.startsWith("<")) {
+            MethodSignature sig;
+            try {
+                sig = view.getIdentifierFactory().parseMethodSignature(query);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid method signature: " + query);
+            }
+            if (!view.getMethod(sig).isPresent()) {
+                throw new IllegalArgumentException("Method not found in project: " + query);
+            }
+            return Collections.singletonList(sig);
+        }
+
+        if (query.endsWith("()")) {
+            query = query.substring(0, query.length() - 2);
+        }
+        String className = null;
+        String methodName = query;
+        int dot = query.lastIndexOf('.');
+        if (dot >= 0) {
+            className = query.substring(0, dot);
+            methodName = query.substring(dot + 1);
+        }
+
+        List<JavaSootClass> candidates = new ArrayList<>();
+        if (className != null && className.indexOf('.') >= 0) {
+            Optional<JavaSootClass> sootClass = view.getClass(view.getIdentifierFactory().getClassType(className));
+            sootClass.ifPresent(candidates::add);
+        }
+        if (candidates.isEmpty()) {
+            String wanted = className;
+            candidates = view.getClasses()
+                    .filter(c -> c.isApplicationClass() && (wanted == null || matchesClass(c, wanted)))
+                    .collect(Collectors.toList());
+        }
+
+        List<MethodSignature> matches = new ArrayList<>();
+        for (JavaSootClass sootClass : candidates) {
+            for (JavaSootMethod method : sootClass.getMethods()) {
+                if (method.getName().equals(methodName)) {
+                    matches.add(method.getSignature());
+                }
+            }
+        }
+        if (matches.isEmpty()) {
+            throw new IllegalArgumentException("No project method matches --method " + query);
+        }
+        return matches;
+    }
+
+    /** Methods of the graph that match the query, sorted by signature. */
+    public static List<MethodSignature> resolve(CompactCallGraph graph, String query) {
+        query = query.trim();
+        if (query.startsWith("<")) {
+            MethodSignature sig;
+            try {
+                sig = JavaIdentifierFactory.getInstance().parseMethodSignature(query);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid method signature: " + query);
+            }
+            if (graph.id(sig) < 0) {
+                throw new IllegalArgumentException("Method not in the call graph: " + query);
+            }
+            return Collections.singletonList(sig);
+        }
+
+        if (query.endsWith("()")) {
+            query = query.substring(0, query.length() - 2);
+        }
+        String className = null;
+        String methodName = query;
+        int dot = query.lastIndexOf('.');
+        if (dot >= 0) {
+            className = query.substring(0, dot);
+            methodName = query.substring(dot + 1);
+        }
+
+        List<MethodSignature> matches = new ArrayList<>();
+        for (int m = 0; m < graph.size(); m++) {
+            MethodSignature sig = graph.signature(m);
+            if (sig.getName().equals(methodName) && (className == null || matchesClass(sig.getDeclClassType(), className))) {
+                matches.add(sig);
+            }
+        }
+        if (matches.isEmpty()) {
+            throw new IllegalArgumentException("No method in the call graph matches " + query);
+        }
+        matches.sort(Comparator.comparing(MethodSignature::toString));
+        return matches;
+    }
+
+    private static boolean matchesClass(JavaSootClass sootClass, String name) {
+        return matchesClass(sootClass.getType(), name);
+    }
+
+    // full name, or the name after the package (Outer$Inner may be written Outer.Inner)
+    private static boolean matchesClass(ClassType type, String name) {
+        String fullName = type.getFullyQualifiedName();
+        String simpleName = type.getClassName();
+        return fullName.equals(name) || simpleName.equals(name) || simpleName.replace('$', '.').equals(name)
+                || fullName.replace('$', '.').equals(name);
+    }
+}
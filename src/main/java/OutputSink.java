@@ -0,0 +1,96 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Output file written through a large buffer on a {@link FileChannel}, optionally
+ * mirrored to the console.
+ *
+ * Everything written goes to the file and, unless the sink is quiet, to standard out
+ * through its own buffer. Text meant for one side only can be sent with
+ * {@link #fileOnly(String)} or {@link #mirrorOnly(String)}. Call {@link #flush()}
+ * before printing to {@code System.out} directly so the console stays in order.
+ */
+public class OutputSink extends Writer {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer file;
+    private final Writer console;
+
+    private OutputSink(Writer file, Writer console) {
+        this.file = file;
+        this.console = console;
+    }
+
+    /** Opens (and truncates) the file; the console mirror is off when {@code quiet}. */
+    public static OutputSink open(String path, boolean quiet) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Writer file = new BufferedWriter(Channels.newWriter(channel, Charset.defaultCharset()), BUFFER_SIZE);
+        Writer console = null;
+        if (!quiet) {
+            // not closed with the sink, standard out stays usable afterwards
+            console = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out)), BUFFER_SIZE);
+        }
+        return new OutputSink(file, console);
+    }
+
+    /** Opens a sink that never mirrors to the console. */
+    public static OutputSink open(String path) throws IOException {
+        return open(path, true);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        file.write(cbuf, off, len);
+        if (console != null) {
+            console.write(cbuf, off, len);
+        }
+    }
+
+    @Override
+    public void write(String str) throws IOException {
+        file.write(str);
+        if (console != null) {
+            console.write(str);
+        }
+    }
+
+    public void fileOnly(String str) throws IOException {
+        file.write(str);
+    }
+
+    public void mirrorOnly(String str) throws IOException {
+        if (console != null) {
+            console.write(str);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        file.flush();
+        if (console != null) {
+            console.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            file.close();
+        } finally {
+            if (console != null) {
+                console.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import sootup.core.signatures.MethodSignature;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Renders the call trees of many roots on a ForkJoin pool and writes them in the
+ * order the roots were given, so the file matches a sequential run.
+ *
+ * Every worker thread has its own {@link CallTreeTraversal}; the graph and call site
+ * index are only read. At most a few trees per thread are held in memory before
+ * they are written.
+ */
+public class ParallelTreeWriter {
+    private final CompactCallGraph graph;
+    private final CallSiteIndex callSites;
+    private final int maxDepth;
+    private final int maxNodes;
+    private final int threads;
+
+    public ParallelTreeWriter(CompactCallGraph graph, CallSiteIndex callSites, int maxDepth, int maxNodes, int threads) {
+        this.graph = graph;
+        this.callSites = callSites;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.threads = threads;
+    }
+
+    /**
+     * Writes {@code headers.get(i)} followed by the tree of {@code roots.get(i)} and a
+     * newline for every root, stepping the progress line once per root.
+     */
+    public void write(List<MethodSignature> roots, List<String> headers, OutputSink writer, ProgressLine progress) throws IOException {
+        ThreadLocal<CallTreeTraversal> traversals =
+                ThreadLocal.withInitial(() -> new CallTreeTraversal(graph, callSites, maxDepth, maxNodes));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        int window = threads * 4;
+
+        try {
+            for (int i = 0; i < roots.size(); i++) {
+                MethodSignature root = roots.get(i);
+                pending.add(pool.submit(() -> traversals.get().render(root, 1)));
+                if (pending.size() >= window) {
+                    writeBlock(headers.get(i - pending.size() + 1), pending.poll(), writer);
+                    progress.step();
+                }
+            }
+            int first = roots.size() - pending.size();
+            for (int i = first; !pending.isEmpty(); i++) {
+                writeBlock(headers.get(i), pending.poll(), writer);
+                progress.step();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void writeBlock(String header, Future<String> tree, OutputSink writer) throws IOException {
+        String rendered;
+        try {
+            rendered = tree.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering call trees", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Rendering a call tree failed", e.getCause());
+        }
+        writer.write(header);
+        writer.mirrorOnly("\n");
+        writer.write(rendered);
+        writer.fileOnly("\n");
+    }
+}
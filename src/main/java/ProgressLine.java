@@ -0,0 +1,38 @@
+/**
+ * Single self-overwriting progress line on standard error, e.g.
+ * {@code Traversing 1200/5000}. Redrawn at most every 200 ms so it costs nothing
+ * measurable; a disabled instance does nothing.
+ */
+public class ProgressLine {
+    private static final long INTERVAL_NANOS = 200_000_000L;
+
+    private final boolean enabled;
+    private final String label;
+    private final int total;
+    private int done;
+    private long lastDraw;
+
+    public ProgressLine(boolean enabled, String label, int total) {
+        this.enabled = enabled;
+        this.label = label;
+        this.total = total;
+    }
+
+    public void step() {
+        done++;
+        if (!enabled) return;
+        long now = System.nanoTime();
+        if (now - lastDraw >= INTERVAL_NANOS || done == total) {
+            lastDraw = now;
+            System.err.print("\r" + label + " " + done + "/" + total);
+            System.err.flush();
+        }
+    }
+
+    /** Ends the line so later output starts on a fresh one. */
+    public void finish() {
+        if (enabled && done > 0) {
+            System.err.println();
+        }
+    }
+}
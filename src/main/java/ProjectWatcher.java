@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * Keeps the output of a built {@link CallGraphService} current while the project is edited
+ * ({@code --watch}), in the same JVM, so the library layer and the JIT stay warm.
+ *
+ * The {@code --sources} tree is watched for .java files, or without it the class directory
+ * for .class files, through a {@link WatchService}. The events of a burst of saves are
+ * collected until nothing changed for {@code --debounce} ms. Then only the changed sources
+ * are compiled, against the class directory, together with the sources that depend on a
+ * class whose API they changed (see {@link SourceCompiler#compile}), and the classes they
+ * no longer produce are deleted; a deleted source compiles the whole tree instead.
+ * {@link CallGraphService#update} re-resolves just what the changed class files affect,
+ * and the output files are written again, as a clean run would write them.
+ *
+ * A failed compile or analysis is printed and the next change is waited for, which then
+ * compiles and analyzes the whole project. Runs until the process is stopped.
+ */
+public class ProjectWatcher {
+    /** Writes the outputs of the updated service. */
+    public interface Refresh {
+        void run() throws Exception;
+    }
+
+    private final CallGraphService service;
+    private final BuildCGOptions options;
+    private final PrintStream log;
+    private final Path root;
+    private final Path classDir;
+    // .java under --sources, .class without it
+    private final String extension;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+    // classes each source produced at its last compile
+    private final Map<Path, Set<String>> classesBySource = new HashMap<>();
+
+    // files changed in the current burst; a deleted source needs a full compile
+    private final Set<Path> changed = new LinkedHashSet<>();
+    private boolean deleted;
+    // events were lost, or a directory was removed with its files: the changes are not known file by file
+    private boolean unknown;
+
+    private ProjectWatcher(CallGraphService service) throws IOException {
+        this.service = service;
+        this.options = service.options();
+        this.log = service.log();
+        this.classDir = Paths.get(options.projectPath).toAbsolutePath().normalize();
+        this.root = options.sources != null ? Paths.get(options.sources).toAbsolutePath().normalize() : classDir;
+        this.extension = options.sources != null ? ".java" : ".class";
+        if (!Files.isDirectory(root)) {
+            throw new IOException("--watch needs a directory: " + root);
+        }
+        this.watcher = FileSystems.getDefault().newWatchService();
+        if (service.compiled() != null) {
+            classesBySource.putAll(service.compiled().classesBySource);
+        }
+    }
+
+    /** Watches the project of {@code service}, updating it and calling {@code refresh} after every change. */
+    public static void run(CallGraphService service, Refresh refresh) throws Exception {
+        ProjectWatcher projectWatcher = new ProjectWatcher(service);
+        try {
+            projectWatcher.watch(refresh);
+        } finally {
+            projectWatcher.watcher.close();
+        }
+    }
+
+    private void watch(Refresh refresh) throws Exception {
+        register(root);
+        log.println("\nWatching " + root + " for changes to " + extension + " files, stop with Ctrl+C");
+        while (true) {
+            collect(watcher.take());
+            //a save often comes as several events, and editors save many files at once
+            WatchKey key;
+            while ((key = watcher.poll(options.debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                collect(key);
+            }
+            if (changed.isEmpty() && !unknown) {
+                continue;
+            }
+
+            long t0 = System.nanoTime();
+            boolean failed = false;
+            log.println("\n========================================");
+            log.println("Change detected: " + (unknown ? "unknown files" : changed.size() + " file(s)"));
+            log.println("========================================");
+            try {
+                List<String> classFiles = options.sources != null ? compile() : classFiles();
+                if (classFiles != null && classFiles.isEmpty()) {
+                    log.println("No class file changed");
+                } else {
+                    service.update(classFiles);
+                    refresh.run();
+                    log.println("Updated in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+                }
+            } catch (Exception e) {
+                log.println("Update failed: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+                failed = true;
+            }
+            changed.clear();
+            deleted = false;
+            //what the failed run did is not known, so the next one starts over
+            unknown = failed;
+        }
+    }
+
+    // compiles what changed and returns the class files written or removed
+    private List<String> compile() throws IOException {
+        SourceCompiler result;
+        if (deleted || unknown) {
+            result = SourceCompiler.run(root, classDir, options.library, log);
+            classesBySource.clear();
+        } else {
+            List<Path> sources = new ArrayList<>();
+            for (Path file : changed) {
+                if (Files.isRegularFile(file)) {
+                    sources.add(file);
+                }
+            }
+            if (sources.isEmpty()) {
+                return new ArrayList<>();
+            }
+            result = SourceCompiler.compile(sources, classDir, options.library, classesBySource, log);
+        }
+        result.printStats(log);
+        log.println();
+        classesBySource.putAll(result.classesBySource);
+        return result.changedClassFiles;
+    }
+
+    // changed class files relative to the class directory, or null if they are not known
+    private List<String> classFiles() {
+        if (unknown) {
+            return null;
+        }
+        List<String> files = new ArrayList<>();
+        for (Path file : changed) {
+            files.add(root.relativize(file).toString().replace('\\', '/'));
+        }
+        return files;
+    }
+
+    private void collect(WatchKey key) throws IOException {
+        Path dir = dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                unknown = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                //files may be in it before it is registered
+                register(path);
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(this::relevant).forEach(changed::add);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && dirs.containsValue(path)) {
+                //a removed directory only reports itself, not its files
+                unknown = true;
+            } else if (path.getFileName().toString().endsWith(extension)) {
+                changed.add(path);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    deleted = true;
+                }
+            }
+        }
+        if (!key.reset()) {
+            dirs.remove(key);
+        }
+    }
+
+    private boolean relevant(Path file) {
+        return file.getFileName().toString().endsWith(extension) && Files.isRegularFile(file);
+    }
+
+    // every directory of the tree, as a WatchService does not watch subdirectories
+    private void register(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path) && !dirs.containsValue(path)) {
+                    dirs.put(path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * Strongly connected components of a {@link CompactCallGraph} and the condensed DAG
+ * between them, computed with an iterative version of Tarjan's algorithm.
+ *
+ * Components are numbered in the order Tarjan completes them, which is a reverse
+ * topological order: every edge of the condensed graph goes from a higher component
+ * id to a lower one. Members and condensed edges are stored in CSR form like the
+ * graph itself.
+ */
+public class SccCondensation {
+    private final CompactCallGraph graph;
+    private final int[] memberOffsets;
+    private final int[] members;
+    private final boolean[] cyclic;
+    private final int[] dagOffsets;
+    private final int[] dagTargets;
+
+    private SccCondensation(CompactCallGraph graph, int[] component, int count) {
+        this.graph = graph;
+
+        // members grouped by component
+        memberOffsets = new int[count + 1];
+        for (int c : component) {
+            memberOffsets[c + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            memberOffsets[c + 1] += memberOffsets[c];
+        }
+        members = new int[component.length];
+        int[] fill = Arrays.copyOf(memberOffsets, count);
+        for (int m = 0; m < component.length; m++) {
+            members[fill[component[m]]++] = m;
+        }
+
+        // condensed edges, without duplicates; a self loop marks a one-method cycle
+        cyclic = new boolean[count];
+        dagOffsets = new int[count + 1];
+        int[] targets = new int[Math.max(16, graph.edgeCount())];
+        int[] seen = new int[count];
+        Arrays.fill(seen, -1);
+        int edges = 0;
+        for (int c = 0; c < count; c++) {
+            dagOffsets[c] = edges;
+            cyclic[c] = memberOffsets[c + 1] - memberOffsets[c] > 1;
+            for (int i = memberOffsets[c]; i < memberOffsets[c + 1]; i++) {
+                int m = members[i];
+                for (int e = graph.targetsStart(m); e < graph.targetsEnd(m); e++) {
+                    int t = component[graph.targetAt(e)];
+                    if (t == c) {
+                        cyclic[c] = true;
+                    } else if (seen[t] != c) {
+                        seen[t] = c;
+                        targets[edges++] = t;
+                    }
+                }
+            }
+        }
+        dagOffsets[count] = edges;
+        dagTargets = Arrays.copyOf(targets, edges);
+    }
+
+    public static SccCondensation of(CompactCallGraph graph) {
+        int n = graph.size();
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        int[] component = new int[n];
+        Arrays.fill(index, -1);
+        BitSet onStack = new BitSet(n);
+        int[] sccStack = new int[n];
+        int sccTop = 0;
+        // explicit DFS stack: method and the next edge to look at
+        int[] dfsMethod = new int[n];
+        int[] dfsEdge = new int[n];
+        int nextIndex = 0;
+        int count = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) continue;
+
+            int top = 0;
+            dfsMethod[0] = root;
+            dfsEdge[0] = graph.targetsStart(root);
+            index[root] = lowLink[root] = nextIndex++;
+            sccStack[sccTop++] = root;
+            onStack.set(root);
+
+            while (top >= 0) {
+                int m = dfsMethod[top];
+                if (dfsEdge[top] < graph.targetsEnd(m)) {
+                    int t = graph.targetAt(dfsEdge[top]++);
+                    if (index[t] < 0) {
+                        index[t] = lowLink[t] = nextIndex++;
+                        sccStack[sccTop++] = t;
+                        onStack.set(t);
+                        top++;
+                        dfsMethod[top] = t;
+                        dfsEdge[top] = graph.targetsStart(t);
+                    } else if (onStack.get(t)) {
+                        lowLink[m] = Math.min(lowLink[m], index[t]);
+                    }
+                    continue;
+                }
+
+                // all edges of m done
+                if (lowLink[m] == index[m]) {
+                    int w;
+                    do {
+                        w = sccStack[--sccTop];
+                        onStack.clear(w);
+                        component[w] = count;
+                    } while (w != m);
+                    count++;
+                }
+                top--;
+                if (top >= 0) {
+                    int parent = dfsMethod[top];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[m]);
+                }
+            }
+        }
+        return new SccCondensation(graph, component, count);
+    }
+
+    public int componentCount() {
+        return cyclic.length;
+    }
+
+    /** True if the component is a cycle: several methods, or one method calling itself. */
+    public boolean isCyclic(int comp) {
+        return cyclic[comp];
+    }
+
+    public int cyclicCount() {
+        int n = 0;
+        for (boolean c : cyclic) {
+            if (c) n++;
+        }
+        return n;
+    }
+
+    public int largestComponentSize() {
+        int largest = 0;
+        for (int c = 0; c < componentCount(); c++) {
+            largest = Math.max(largest, size(c));
+        }
+        return largest;
+    }
+
+    public int size(int comp) {
+        return memberOffsets[comp + 1] - memberOffsets[comp];
+    }
+
+    /**
+     * Writes the condensed graph, callers before callees. A single method is printed by
+     * its signature, a cycle as one {@code {cycle N}} node listing its members.
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write("CondensedCallGraph(" + componentCount() + " components, " + cyclicCount() + " cycles):\n");
+        for (int c = componentCount() - 1; c >= 0; c--) {
+            StringBuilder block = new StringBuilder();
+            block.append(name(c));
+            if (isCyclic(c)) {
+                block.append(" (").append(size(c)).append(size(c) == 1 ? " method" : " methods").append(")");
+            }
+            block.append(":\n");
+            if (isCyclic(c)) {
+                List<String> names = new ArrayList<>();
+                for (int i = memberOffsets[c]; i < memberOffsets[c + 1]; i++) {
+                    names.add(graph.signature(members[i]).toString());
+                }
+                names.sort(null);
+                for (String name : names) {
+                    block.append("\tmember ").append(name).append("\n");
+                }
+            }
+            for (int e = dagOffsets[c]; e < dagOffsets[c + 1]; e++) {
+                block.append("\tto ").append(name(dagTargets[e])).append("\n");
+            }
+            block.append("\n");
+            writer.write(block.toString());
+        }
+    }
+
+    private String name(int comp) {
+        if (isCyclic(comp)) {
+            return "{cycle " + comp + "}";
+        }
+        return graph.signature(members[memberOffsets[comp]]).toString();
+    }
+}
@@ -0,0 +1,78 @@
+import sootup.core.types.ClassType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+
+/**
+ * Decides which classes the call graph construction may expand.
+ *
+ * A class is in scope if it matches an include rule (or there are none), matches no
+ * exclude rule and, in application-only mode, is one of the project's own classes.
+ * A rule is a package name and matches that package and everything below it, so
+ * {@code java} matches {@code java.lang.Object} but not {@code javax.swing.JFrame}.
+ */
+public class ScopeRules {
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final Set<String> applicationClasses;
+
+    public ScopeRules(Collection<String> includes, Collection<String> excludes, Collection<String> applicationClasses) {
+        this.includes = normalize(includes);
+        this.excludes = normalize(excludes);
+        this.applicationClasses = applicationClasses == null ? null : new HashSet<>(applicationClasses);
+    }
+
+    /** Rules given by the options, or null if there are none; {@code appClasses} is only asked for with --app-only. */
+    public static ScopeRules of(BuildCGOptions options, Supplier<? extends Collection<String>> appClasses) {
+        if (!options.appOnly && options.includes.isEmpty() && options.excludes.isEmpty()) {
+            return null;
+        }
+        return new ScopeRules(options.includes, options.excludes, options.appOnly ? appClasses.get() : null);
+    }
+
+    /** True if no rule is set, so every class is in scope. */
+    public boolean isUnrestricted() {
+        return includes.isEmpty() && excludes.isEmpty() && applicationClasses == null;
+    }
+
+    public boolean contains(ClassType type) {
+        String name = type.getFullyQualifiedName();
+        if (applicationClasses != null && !applicationClasses.contains(name)) {
+            return false;
+        }
+        if (!includes.isEmpty() && !matchesAny(includes, name)) {
+            return false;
+        }
+        return !matchesAny(excludes, name);
+    }
+
+    private static boolean matchesAny(List<String> packages, String className) {
+        for (String pkg : packages) {
+            if (className.startsWith(pkg) && (className.length() == pkg.length() || className.charAt(pkg.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> normalize(Collection<String> rules) {
+        List<String> packages = new ArrayList<>();
+        for (String rule : rules) {
+            String pkg = rule.trim();
+            if (pkg.endsWith(".*")) {
+                pkg = pkg.substring(0, pkg.length() - 2);
+            } else if (pkg.endsWith(".")) {
+                pkg = pkg.substring(0, pkg.length() - 1);
+            }
+            if (!pkg.isEmpty()) {
+                packages.add(pkg);
+            }
+        }
+        return packages;
+    }
+}
@@ -0,0 +1,126 @@
+import sootup.core.jimple.common.stmt.InvokableStmt;
+import sootup.core.model.SootMethod;
+import sootup.core.signatures.MethodSignature;
+import sootup.core.views.View;
+import sootup.callgraph.CallGraphAlgorithm;
+import sootup.callgraph.ClassHierarchyAnalysisAlgorithm;
+import sootup.callgraph.MutableCallGraph;
+import sootup.callgraph.RapidTypeAnalysisAlgorithm;
+
+import java.util.Deque;
+import java.util.stream.Stream;
+
+
+/**
+ * CHA and RTA algorithms that stop at the {@link ScopeRules} boundary.
+ *
+ * A call into an out-of-scope class is kept as an edge to a stub method: the callee
+ * is added to the graph but never put on the work list, so its class hierarchy is not
+ * searched for overriding targets and its body is never lifted or expanded.
+ *
+ * {@link #chaEntriesOnly} puts no callee on the work list at all, so only the entry
+ * points (and their static initializers) are processed; {@link IncrementalUpdate} uses
+ * it to recompute the edges of single methods.
+ */
+public class ScopedAlgorithms {
+    private ScopedAlgorithms() {
+    }
+
+    public static CallGraphAlgorithm cha(View view, ScopeRules scope) {
+        if (scope == null || scope.isUnrestricted()) {
+            return new ClassHierarchyAnalysisAlgorithm(view);
+        }
+        return new ScopedCha(view, scope, true);
+    }
+
+    /** CHA that resolves the calls of its entry points only; {@code scope} may be null. */
+    public static CallGraphAlgorithm chaEntriesOnly(View view, ScopeRules scope) {
+        return new ScopedCha(view, scope, false);
+    }
+
+    public static CallGraphAlgorithm rta(View view, ScopeRules scope) {
+        if (scope == null || scope.isUnrestricted()) {
+            return new RapidTypeAnalysisAlgorithm(view);
+        }
+        return new ScopedRta(view, scope);
+    }
+
+    // the invoked signature itself if it is out of scope, otherwise null
+    private static MethodSignature stubTarget(ScopeRules scope, InvokableStmt stmt) {
+        if (scope == null) {
+            return null;
+        }
+        return stmt.getInvokeExpr()
+                .map(expr -> expr.getMethodSignature())
+                .filter(sig -> !scope.contains(sig.getDeclClassType()))
+                .orElse(null);
+    }
+
+    // same bookkeeping as AbstractCallGraphAlgorithm.addCallToCG, minus queuing the target
+    private static void addStubCall(MethodSignature source, MethodSignature target, InvokableStmt stmt,
+                                    MutableCallGraph cg, Deque<MethodSignature> workList) {
+        if (!cg.containsMethod(source)) {
+            cg.addMethod(source);
+            workList.push(source);
+        }
+        if (!cg.containsMethod(target)) {
+            cg.addMethod(target);
+        }
+        if (!cg.containsCall(source, target, stmt)) {
+            cg.addCall(source, target, stmt);
+        }
+    }
+
+    private static class ScopedCha extends ClassHierarchyAnalysisAlgorithm {
+        private final ScopeRules scope;
+        // false: no callee is put on the work list
+        private final boolean expandCallees;
+
+        ScopedCha(View view, ScopeRules scope, boolean expandCallees) {
+            super(view);
+            this.scope = scope;
+            this.expandCallees = expandCallees;
+        }
+
+        @Override
+        protected Stream<MethodSignature> resolveCall(SootMethod method, InvokableStmt stmt) {
+            MethodSignature stub = stubTarget(scope, stmt);
+            return stub != null ? Stream.of(stub) : super.resolveCall(method, stmt);
+        }
+
+        @Override
+        protected void addCallToCG(MethodSignature source, MethodSignature target, InvokableStmt stmt,
+                                   MutableCallGraph cg, Deque<MethodSignature> workList) {
+            if (expandCallees && (scope == null || scope.contains(target.getDeclClassType()))) {
+                super.addCallToCG(source, target, stmt, cg, workList);
+            } else {
+                addStubCall(source, target, stmt, cg, workList);
+            }
+        }
+    }
+
+    private static class ScopedRta extends RapidTypeAnalysisAlgorithm {
+        private final ScopeRules scope;
+
+        ScopedRta(View view, ScopeRules scope) {
+            super(view);
+            this.scope = scope;
+        }
+
+        @Override
+        protected Stream<MethodSignature> resolveCall(SootMethod method, InvokableStmt stmt) {
+            MethodSignature stub = stubTarget(scope, stmt);
+            return stub != null ? Stream.of(stub) : super.resolveCall(method, stmt);
+        }
+
+        @Override
+        protected void addCallToCG(MethodSignature source, MethodSignature target, InvokableStmt stmt,
+                                   MutableCallGraph cg, Deque<MethodSignature> workList) {
+            if (scope.contains(target.getDeclClassType())) {
+                super.addCallToCG(source, target, stmt, cg, workList);
+            } else {
+                addStubCall(source, target, stmt, cg, workList);
+            }
+        }
+    }
+}
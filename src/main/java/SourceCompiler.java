@@ -0,0 +1,475 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Compiles a source tree in-process, in a single {@link JavaCompiler} task with full debug
+ * information ({@code -g}), into the class directory that is then analyzed ({@code --sources}).
+ *
+ * Class files are produced in memory and only written where their bytes changed, and class
+ * files of the directory that no source produces any more are deleted, so the directory
+ * ends up as if it had been cleared and compiled again. Unchanged classes keep their
+ * files, which lets {@link GraphCache} with {@code --incremental} see just the edited ones.
+ * Library jars and class directories of {@code --library} are on the compile class path.
+ */
+public class SourceCompiler {
+    public int sourceFiles;
+    public int classFiles;
+    public int written;
+    public int removed;
+    // sources compiled only because a class they depend on changed its API
+    public int dependents;
+    // binary names of the classes each compiled source produced, by absolute source path
+    public final Map<Path, Set<String>> classesBySource = new HashMap<>();
+    // class files written or removed, relative to the class directory with '/' separators
+    public final List<String> changedClassFiles = new ArrayList<>();
+    private long compileMillis;
+    private long totalMillis;
+
+    private SourceCompiler() {
+    }
+
+    /** Compiles every .java file under {@code sourceDir} into {@code classDir}. */
+    public static SourceCompiler run(Path sourceDir, Path classDir, String library, PrintStream log) throws IOException {
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(sourceDir)) {
+            sources = files.filter(f -> f.toString().endsWith(".java") && Files.isRegularFile(f))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (sources.isEmpty()) {
+            throw new IOException("No .java files under " + sourceDir);
+        }
+        return compile(sources, classDir, library, null, log);
+    }
+
+    /**
+     * Compiles {@code sources} into {@code classDir}. Without {@code previous} they are all
+     * the sources of the project and every other class file of the directory is deleted.
+     * Otherwise these sources are compiled against the class directory, and so are the
+     * sources that depend on them: {@code previous} tells which classes each source produced
+     * at its last compile (see {@link #classesBySource}), so the classes a source no longer
+     * produces are deleted and the sources of the classes referring to one whose API changed
+     * are compiled again, until no API changes. A changed constant recompiles every source,
+     * as javac copies constants into the classes that use them without a reference back.
+     */
+    public static SourceCompiler compile(Collection<Path> sources, Path classDir, String library,
+                                         Map<Path, Set<String>> previous, PrintStream log) throws IOException {
+        boolean complete = previous == null;
+        SourceCompiler result = new SourceCompiler();
+        long t0 = System.nanoTime();
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("No Java compiler available, --sources needs a JDK");
+        }
+        if (Files.exists(classDir) && !Files.isDirectory(classDir)) {
+            throw new IOException("Class output is not a directory: " + classDir);
+        }
+        Files.createDirectories(classDir);
+        List<String> classPath = classPath(library);
+        if (!complete) {
+            //javac's default is the class path of this JVM, which -classpath would drop
+            if (classPath.isEmpty()) {
+                classPath.add(System.getProperty("java.class.path"));
+            }
+            classPath.add(0, classDir.toString());
+        }
+        List<String> compilerOptions = new ArrayList<>(Arrays.asList("-g"));
+        if (!classPath.isEmpty()) {
+            compilerOptions.add("-classpath");
+            compilerOptions.add(String.join(File.pathSeparator, classPath));
+        }
+
+        if (complete) {
+            result.sourceFiles = sources.size();
+            Set<Path> produced = result.write(result.javac(compiler, sources, compilerOptions, log), classDir);
+            List<Path> stale = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(classDir)) {
+                files.filter(f -> f.toString().endsWith(".class") && !produced.contains(f)).forEach(stale::add);
+            }
+            result.remove(stale, classDir);
+        } else {
+            result.compileChanged(compiler, sources, compilerOptions, classDir, previous, log);
+        }
+        result.totalMillis = (System.nanoTime() - t0) / 1_000_000;
+        return result;
+    }
+
+    // compiles the changed sources, then those depending on a class whose API changed, until none did
+    private void compileChanged(JavaCompiler compiler, Collection<Path> changed, List<String> compilerOptions,
+                                Path classDir, Map<Path, Set<String>> previous, PrintStream log) throws IOException {
+        Map<Path, Set<String>> known = new HashMap<>(previous);
+        Set<Path> done = new HashSet<>();
+        Set<Path> round = new LinkedHashSet<>();
+        for (Path source : changed) {
+            round.add(source.toAbsolutePath().normalize());
+        }
+        while (!round.isEmpty()) {
+            done.addAll(round);
+            sourceFiles += round.size();
+            // the classes of these sources as the rest of the project was compiled against them
+            Map<String, ClassSummary> before = new HashMap<>();
+            for (Path source : round) {
+                for (String className : known.getOrDefault(source, Collections.emptySet())) {
+                    Path file = classFile(classDir, className);
+                    if (Files.isRegularFile(file)) {
+                        before.put(className, ClassSummary.read(Files.readAllBytes(file)));
+                    }
+                }
+            }
+            Map<String, byte[]> classes = javac(compiler, round, compilerOptions, log);
+            Set<Path> produced = write(classes, classDir);
+            List<Path> stale = new ArrayList<>();
+            for (String className : before.keySet()) {
+                if (!produced.contains(classFile(classDir, className))) {
+                    stale.add(classFile(classDir, className));
+                }
+            }
+            remove(stale, classDir);
+            known.keySet().removeAll(round);
+            known.putAll(classesBySource);
+
+            Set<String> changedApi = new HashSet<>();
+            boolean constantsChanged = false;
+            for (Map.Entry<String, ClassSummary> entry : before.entrySet()) {
+                ClassSummary old = entry.getValue();
+                byte[] bytes = classes.get(entry.getKey());
+                ClassSummary now = bytes == null ? null : ClassSummary.read(bytes);
+                if (now == null || !now.api.equals(old.api)) {
+                    changedApi.add(old.name);
+                }
+                if (now == null ? !old.constants.isEmpty() : !now.constants.equals(old.constants)) {
+                    constantsChanged = true;
+                }
+            }
+
+            round = new LinkedHashSet<>();
+            if (constantsChanged) {
+                for (Path source : known.keySet()) {
+                    if (Files.isRegularFile(source)) round.add(source);
+                }
+            } else if (!changedApi.isEmpty()) {
+                round.addAll(dependents(classDir, changedApi, known));
+            }
+            round.removeAll(done);
+            dependents += round.size();
+        }
+    }
+
+    // one javac task over the sources; the class files it produced, by binary name
+    private Map<String, byte[]> javac(JavaCompiler compiler, Collection<Path> sources, List<String> compilerOptions,
+                                      PrintStream log) throws IOException {
+        long t0 = System.nanoTime();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, byte[]> classes;
+        try (StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+             MemoryFileManager memory = new MemoryFileManager(standard)) {
+            boolean ok = compiler.getTask(null, memory, diagnostics, compilerOptions, null,
+                    standard.getJavaFileObjectsFromPaths(sources)).call();
+            int errors = 0;
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                log.println(diagnostic);
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) errors++;
+            }
+            if (!ok) {
+                throw new IOException("Compilation failed with " + errors + " error(s)");
+            }
+            classes = memory.classes();
+            classesBySource.putAll(memory.classesBySource);
+        }
+        compileMillis += (System.nanoTime() - t0) / 1_000_000;
+        classFiles += classes.size();
+        return classes;
+    }
+
+    // only changed bytes are written, so unchanged class files keep their timestamps
+    private Set<Path> write(Map<String, byte[]> classes, Path classDir) throws IOException {
+        Set<Path> produced = new HashSet<>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            Path file = classFile(classDir, entry.getKey());
+            produced.add(file);
+            if (Files.isRegularFile(file) && Arrays.equals(Files.readAllBytes(file), entry.getValue())) {
+                continue;
+            }
+            Files.createDirectories(file.getParent());
+            Files.write(file, entry.getValue());
+            written++;
+            changedClassFiles.add(entry.getKey().replace('.', '/') + ".class");
+        }
+        return produced;
+    }
+
+    private void remove(List<Path> stale, Path classDir) throws IOException {
+        for (Path file : stale) {
+            Files.delete(file);
+            removed++;
+            changedClassFiles.add(classDir.relativize(file).toString().replace('\\', '/'));
+        }
+    }
+
+    // sources of the class files that refer to a changed class, or to a subtype, which inherits its members
+    private static Set<Path> dependents(Path classDir, Set<String> changedApi, Map<Path, Set<String>> known)
+            throws IOException {
+        Map<String, Path> sourceOf = new HashMap<>();
+        for (Map.Entry<Path, Set<String>> entry : known.entrySet()) {
+            for (String className : entry.getValue()) {
+                sourceOf.put(className.replace('.', '/'), entry.getKey());
+            }
+        }
+        List<ClassSummary> summaries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(classDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.toString().endsWith(".class") && Files.isRegularFile(file)) {
+                    summaries.add(ClassSummary.read(Files.readAllBytes(file)));
+                }
+            }
+        }
+        Set<String> affected = new HashSet<>(changedApi);
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (ClassSummary summary : summaries) {
+                if (affected.contains(summary.superName) || !Collections.disjoint(summary.interfaces, affected)) {
+                    grew |= affected.add(summary.name);
+                }
+            }
+        }
+        Set<Path> sources = new LinkedHashSet<>();
+        for (ClassSummary summary : summaries) {
+            Path source = sourceOf.get(summary.name);
+            if (source != null && Files.isRegularFile(source) && !Collections.disjoint(summary.references, affected)) {
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    private static Path classFile(Path classDir, String className) {
+        return classDir.resolve(className.replace('.', '/') + ".class");
+    }
+
+    public void printStats(PrintStream out) {
+        out.println("Compiled " + sourceFiles + " source file(s) into " + classFiles + " class file(s) in "
+                + compileMillis + " ms");
+        out.println("  Class files written: " + written + ", removed: " + removed + ", unchanged: "
+                + (classFiles - written));
+        if (dependents > 0) {
+            out.println("  Dependent source files recompiled: " + dependents);
+        }
+        out.println("  Wall: " + totalMillis + " ms");
+    }
+
+    // jars and class directories of --library; the JDK itself is always available to javac
+    private static List<String> classPath(String library) throws IOException {
+        List<String> classPath = new ArrayList<>();
+        if (library == null) {
+            return classPath;
+        }
+        for (String entry : library.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty() || entry.equals("jrt")) continue;
+            Path path = Paths.get(entry);
+            List<Path> jars = new ArrayList<>();
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.jar")) {
+                    files.forEach(jars::add);
+                }
+                jars.sort(null);
+            }
+            if (jars.isEmpty()) {
+                classPath.add(entry);
+            } else {
+                for (Path jar : jars) {
+                    classPath.add(jar.toString());
+                }
+            }
+        }
+        return classPath;
+    }
+
+    // keeps every class file javac writes in memory, by binary name
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, ByteArrayOutputStream> outputs = new TreeMap<>();
+        private final Map<Path, Set<String>> classesBySource = new HashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) throws IOException {
+            if (location != StandardLocation.CLASS_OUTPUT || kind != JavaFileObject.Kind.CLASS) {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+            if (sibling != null && "file".equals(sibling.toUri().getScheme())) {
+                classesBySource.computeIfAbsent(Paths.get(sibling.toUri()).toAbsolutePath().normalize(),
+                        source -> new HashSet<>()).add(className);
+            }
+            return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    outputs.put(className, out);
+                    return out;
+                }
+            };
+        }
+
+        Map<String, byte[]> classes() {
+            Map<String, byte[]> classes = new TreeMap<>();
+            for (Map.Entry<String, ByteArrayOutputStream> entry : outputs.entrySet()) {
+                classes.put(entry.getKey(), entry.getValue().toByteArray());
+            }
+            return classes;
+        }
+    }
+
+    // what a class file shows the classes compiled against it, and the classes it refers to
+    private static class ClassSummary {
+        private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>]+)[;<]");
+
+        String name;
+        String superName;
+        final List<String> interfaces = new ArrayList<>();
+        // flags, supertypes and non-private member signatures
+        String api;
+        // values of the non-private constant fields
+        String constants;
+        // internal names in the constant pool and in descriptors
+        final Set<String> references = new HashSet<>();
+
+        static ClassSummary read(byte[] bytes) throws IOException {
+            ClassSummary summary = new ClassSummary();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != 0xCAFEBABE) {
+                throw new IOException("Not a class file");
+            }
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            int count = in.readUnsignedShort();
+            int[] tags = new int[count];
+            String[] utf8 = new String[count];
+            // name of a Class entry, text of a String entry
+            int[] index = new int[count];
+            Object[] values = new Object[count];
+            for (int i = 1; i < count; i++) {
+                tags[i] = in.readUnsignedByte();
+                switch (tags[i]) {
+                    case 1: utf8[i] = in.readUTF(); break;
+                    case 3: values[i] = in.readInt(); break;
+                    case 4: values[i] = in.readFloat(); break;
+                    case 5: values[i] = in.readLong(); i++; break;
+                    case 6: values[i] = in.readDouble(); i++; break;
+                    case 7: case 8: index[i] = in.readUnsignedShort(); break;
+                    case 16: case 19: case 20: in.readUnsignedShort(); break;
+                    case 15: in.skipBytes(3); break;
+                    case 9: case 10: case 11: case 12: case 17: case 18: in.readInt(); break;
+                    default: throw new IOException("Unknown constant pool tag " + tags[i]);
+                }
+            }
+            for (int i = 1; i < count; i++) {
+                if (tags[i] == 7) {
+                    summary.references.add(utf8[index[i]]);
+                } else if (tags[i] == 8) {
+                    values[i] = utf8[index[i]];
+                } else if (tags[i] == 1) {
+                    Matcher matcher = DESCRIPTOR_CLASS.matcher(utf8[i]);
+                    while (matcher.find()) {
+                        summary.references.add(matcher.group(1));
+                    }
+                }
+            }
+
+            StringBuilder api = new StringBuilder();
+            StringBuilder constants = new StringBuilder();
+            // ACC_SUPER says nothing about the API
+            api.append(in.readUnsignedShort() & ~0x20);
+            summary.name = utf8[index[in.readUnsignedShort()]];
+            int superClass = in.readUnsignedShort();
+            summary.superName = superClass == 0 ? null : utf8[index[superClass]];
+            api.append(" extends ").append(summary.superName);
+            for (int n = in.readUnsignedShort(); n > 0; n--) {
+                String name = utf8[index[in.readUnsignedShort()]];
+                summary.interfaces.add(name);
+                api.append(" implements ").append(name);
+            }
+            for (int member = 0; member < 2; member++) {
+                for (int n = in.readUnsignedShort(); n > 0; n--) {
+                    int access = in.readUnsignedShort();
+                    String name = utf8[in.readUnsignedShort()];
+                    String descriptor = utf8[in.readUnsignedShort()];
+                    String signature = null;
+                    Object constant = null;
+                    for (int a = in.readUnsignedShort(); a > 0; a--) {
+                        String attribute = utf8[in.readUnsignedShort()];
+                        int length = in.readInt();
+                        if (attribute.equals("Signature")) {
+                            signature = utf8[in.readUnsignedShort()];
+                        } else if (attribute.equals("ConstantValue")) {
+                            constant = values[in.readUnsignedShort()];
+                        } else {
+                            in.skipBytes(length);
+                        }
+                    }
+                    // private members are only seen by the same source
+                    if ((access & 0x0002) != 0) continue;
+                    api.append('\n').append(member == 0 ? "field " : "method ").append(access).append(' ')
+                            .append(name).append(' ').append(descriptor).append(' ').append(signature);
+                    if (constant != null) {
+                        constants.append(name).append('=').append(constant).append('\n');
+                    }
+                }
+            }
+            for (int a = in.readUnsignedShort(); a > 0; a--) {
+                String attribute = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (attribute.equals("Signature")) {
+                    api.append("\nsignature ").append(utf8[in.readUnsignedShort()]);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+            summary.api = api.toString();
+            summary.constants = constants.toString();
+            return summary;
+        }
+    }
+}